@@ -20,7 +20,9 @@ import dan200.computercraft.api.pocket.IPocketUpgrade;
 import dan200.computercraft.api.redstone.IBundledRedstoneProvider;
 import dan200.computercraft.api.turtle.ITurtleUpgrade;
 import dan200.computercraft.core.apis.AddressPredicate;
+import dan200.computercraft.core.filesystem.BlobStore;
 import dan200.computercraft.core.filesystem.ComboMount;
+import dan200.computercraft.core.filesystem.DeduplicatedFileMount;
 import dan200.computercraft.core.filesystem.FileMount;
 import dan200.computercraft.core.filesystem.JarMount;
 import dan200.computercraft.core.terminal.Terminal;
@@ -133,6 +135,8 @@ public class ComputerCraft
     public static boolean debug_enable = false;
     public static int computer_threads = 1;
     public static boolean logPeripheralErrors = false;
+    public static boolean coalesceEvents = true;
+    public static int allocationLimit = 0;
 
     public static boolean enableCommandBlock = false;
     public static boolean turtlesNeedFuel = true;
@@ -158,6 +162,10 @@ public class ComputerCraft
     public static int computerSpaceLimit = 1000 * 1000;
     public static int floppySpaceLimit = 125 * 1000;
     public static int maximumFilesOpen = 128;
+    public static int fileFlushInterval = 1000;
+    public static boolean syncFilesOnClose = false;
+    public static boolean deduplicateFiles = false;
+    public static int terminalUpdateInterval = 1;
 
     public static int maxNotesPerTick = 8;
 
@@ -215,6 +223,8 @@ public class ComputerCraft
         public static Property debug_enable;
         public static Property computer_threads;
         public static Property logPeripheralErrors;
+        public static Property coalesceEvents;
+        public static Property allocationLimit;
 
         public static Property enableCommandBlock;
         public static Property turtlesNeedFuel;
@@ -231,6 +241,10 @@ public class ComputerCraft
         public static Property computerSpaceLimit;
         public static Property floppySpaceLimit;
         public static Property maximumFilesOpen;
+        public static Property fileFlushInterval;
+        public static Property syncFilesOnClose;
+        public static Property deduplicateFiles;
+        public static Property terminalUpdateInterval;
         public static Property maxNotesPerTick;
 
     }
@@ -326,6 +340,21 @@ public class ComputerCraft
         Config.logPeripheralErrors.setComment( "Log exceptions thrown by peripherals and other Lua objects.\n" +
             "This makes it easier for mod authors to debug problems, but may result in log spam should people use buggy methods." );
 
+        Config.coalesceEvents = Config.config.get( Configuration.CATEGORY_GENERAL, "coalesceEvents", coalesceEvents );
+        Config.coalesceEvents
+            .setRequiresWorldRestart( true )
+            .setComment( "Merge \"redstone\", \"monitor_resize\" and \"term_resize\" events with an identical event which is already " +
+                "waiting to be handled. This prevents a flood of these events from filling a computer's event queue." );
+
+        Config.allocationLimit = Config.config.get( Configuration.CATEGORY_GENERAL, "allocationLimit", allocationLimit );
+        Config.allocationLimit
+            .setMinValue( 0 )
+            .setComment( "The maximum number of bytes a computer may allocate while handling a single event, before an " +
+                "\"Allocation limit exceeded\" error is raised. The limit applies to each event separately, not to the " +
+                "computer as a whole, and resets once the event has been handled. It limits how much a computer " +
+                "allocates, not how much memory it holds on to: short-lived garbage counts towards it, as does anything " +
+                "allocated by peripherals called from the computer's thread. Set to 0 to disable the limit." );
+
         Config.enableCommandBlock = Config.config.get( Configuration.CATEGORY_GENERAL, "enableCommandBlock", enableCommandBlock );
         Config.enableCommandBlock.setComment( "Enable Command Block peripheral support" );
 
@@ -353,6 +382,30 @@ public class ComputerCraft
         Config.maximumFilesOpen = Config.config.get(Configuration.CATEGORY_GENERAL, "maximumFilesOpen", maximumFilesOpen);
         Config.maximumFilesOpen.setComment( "Set how many files a computer can have open at the same time. Set to 0 for unlimited." );
 
+        Config.fileFlushInterval = Config.config.get( Configuration.CATEGORY_GENERAL, "fileFlushInterval", fileFlushInterval );
+        Config.fileFlushInterval
+            .setMinValue( 0 )
+            .setComment( "How long writes to computer files may be buffered before being written to disk, in milliseconds. " +
+                "Buffered data is also written when the buffer fills, or the file is flushed or closed. " +
+                "Set to 0 to write every change immediately." );
+
+        Config.syncFilesOnClose = Config.config.get( Configuration.CATEGORY_GENERAL, "syncFilesOnClose", syncFilesOnClose );
+        Config.syncFilesOnClose.setComment( "Force a file's contents onto the physical disk when a computer closes it. This " +
+            "protects against data loss should the server crash, but makes closing files much slower." );
+
+        Config.deduplicateFiles = Config.config.get( Configuration.CATEGORY_GENERAL, "deduplicateFiles", deduplicateFiles );
+        Config.deduplicateFiles
+            .setRequiresWorldRestart( true )
+            .setComment( "Store identical files on computers and disks only once, linking each copy to a shared file in " +
+                "the world's computercraft/blobs directory. This requires a file system which supports hard links and exposes " +
+                "link counts (such as most Linux and macOS file systems), and is ignored elsewhere." );
+
+        Config.terminalUpdateInterval = Config.config.get( Configuration.CATEGORY_GENERAL, "terminalUpdateInterval", terminalUpdateInterval );
+        Config.terminalUpdateInterval
+            .setMinValue( 1 )
+            .setComment( "The minimum number of ticks between terminal updates sent to players. Changes made in between " +
+                "are sent together, so increasing this reduces bandwidth on busy servers at the cost of smoothness." );
+
         Config.turtleFuelLimit = Config.config.get( Configuration.CATEGORY_GENERAL, "turtleFuelLimit", turtleFuelLimit );
         Config.turtleFuelLimit.setComment( "The fuel limit for Turtles" );
 
@@ -394,6 +447,8 @@ public class ComputerCraft
         debug_enable = Config.debug_enable.getBoolean();
         computer_threads = Config.computer_threads.getInt();
         logPeripheralErrors = Config.logPeripheralErrors.getBoolean();
+        coalesceEvents = Config.coalesceEvents.getBoolean();
+        allocationLimit = Math.max( 0, Config.allocationLimit.getInt() );
 
         enableCommandBlock = Config.enableCommandBlock.getBoolean();
 
@@ -405,6 +460,10 @@ public class ComputerCraft
         computerSpaceLimit = Config.computerSpaceLimit.getInt();
         floppySpaceLimit = Config.floppySpaceLimit.getInt();
         maximumFilesOpen = Math.max( 0, Config.maximumFilesOpen.getInt() );
+        fileFlushInterval = Math.max( 0, Config.fileFlushInterval.getInt() );
+        syncFilesOnClose = Config.syncFilesOnClose.getBoolean();
+        deduplicateFiles = Config.deduplicateFiles.getBoolean();
+        terminalUpdateInterval = Math.max( 1, Config.terminalUpdateInterval.getInt() );
 
         turtlesNeedFuel = Config.turtlesNeedFuel.getBoolean();
         turtleFuelLimit = Config.turtleFuelLimit.getInt();
@@ -558,7 +617,14 @@ public class ComputerCraft
         return proxy.getWorldDir( world );
     }
 
-    private static FMLProxyPacket encode( ComputerCraftPacket packet )
+    /**
+     * Serialise a packet, so it may be sent to several players with {@link #sendToPlayer(EntityPlayer, FMLProxyPacket)}
+     * without being encoded again for each of them.
+     *
+     * @param packet The packet to encode
+     * @return The encoded packet.
+     */
+    public static FMLProxyPacket encode( ComputerCraftPacket packet )
     {
         PacketBuffer buffer = new PacketBuffer( Unpooled.buffer() );
         packet.toBytes( buffer );
@@ -570,6 +636,13 @@ public class ComputerCraft
         networkEventChannel.sendTo( encode( packet ), (EntityPlayerMP)player );
     }
 
+    public static void sendToPlayer( EntityPlayer player, FMLProxyPacket packet )
+    {
+        // Sending a packet consumes its payload, so give each player their own view of the shared bytes.
+        FMLProxyPacket copy = new FMLProxyPacket( new PacketBuffer( packet.payload().retainedDuplicate() ), packet.channel() );
+        networkEventChannel.sendTo( copy, (EntityPlayerMP)player );
+    }
+
     public static void sendToAllPlayers( ComputerCraftPacket packet )
     {
         networkEventChannel.sendToAll( encode( packet ) );
@@ -845,7 +918,14 @@ public class ComputerCraft
     {
         try
         {
-            return new FileMount( new File( getWorldDir( world ), subPath ), capacity );
+            File worldDir = getWorldDir( world );
+            File root = new File( worldDir, subPath );
+            BlobStore store = deduplicateFiles ? BlobStore.get( new File( worldDir, "computercraft/blobs" ) ) : null;
+            if( store != null )
+            {
+                return new DeduplicatedFileMount( root, capacity, store );
+            }
+            return new FileMount( root, capacity, true );
         }
         catch( Exception e )
         {
@@ -13,6 +13,9 @@ import net.minecraft.world.World;
 import javax.annotation.Nonnull;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
 import java.util.List;
 
 /**
@@ -75,4 +78,20 @@ public interface IMount
      */
     @Nonnull
     InputStream openForRead( @Nonnull String path ) throws IOException;
+
+    /**
+     * Opens a file with a given path, and returns a {@link ReadableByteChannel} representing its contents.
+     *
+     * Mounts backed by real files should return a {@link SeekableByteChannel}, which allows programs to seek within
+     * the file. By default, this wraps the stream returned by {@link #openForRead(String)}.
+     *
+     * @param path A file path in normalised format, relative to the mount location. ie: "programs/myprogram".
+     * @return A channel representing the contents of the file.
+     * @throws IOException If the file does not exist, or could not be opened.
+     */
+    @Nonnull
+    default ReadableByteChannel openChannelForRead( @Nonnull String path ) throws IOException
+    {
+        return Channels.newChannel( openForRead( path ) );
+    }
 }
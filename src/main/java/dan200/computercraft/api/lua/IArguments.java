@@ -0,0 +1,145 @@
+/*
+ * This file is part of the public ComputerCraft API - http://www.computercraft.info
+ * Copyright Daniel Ratcliffe, 2011-2017. This API may be redistributed unmodified and in full only.
+ * For help using the API, and posting your mods, visit the forums at computercraft.info.
+ */
+
+package dan200.computercraft.api.lua;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+/**
+ * The arguments passed to a method of an {@link ILuaObjectWithArguments}.
+ *
+ * Unlike the {@code Object[]} passed to {@link ILuaObject#callMethod(ILuaContext, int, Object[])}, arguments are only
+ * converted to Java values when they are read. This means methods which take large strings or tables can avoid
+ * converting values they never look at.
+ *
+ * Tables are converted when {@link #get(int)} is called, and so may change if the method yields before reading them.
+ *
+ * @see ObjectArguments
+ */
+public interface IArguments
+{
+    /**
+     * Get the number of arguments passed to this method.
+     *
+     * @return The number of arguments.
+     */
+    int count();
+
+    /**
+     * Get an argument, converting it to a Java value. This follows the same conversion rules as
+     * {@link ILuaObject#callMethod(ILuaContext, int, Object[])}.
+     *
+     * @param index The argument index, starting at 0.
+     * @return The converted argument, or {@code null} if it is nil or not present.
+     */
+    @Nullable
+    Object get( int index );
+
+    /**
+     * Convert all arguments to Java values.
+     *
+     * @return The converted arguments.
+     * @see #get(int)
+     */
+    @Nonnull
+    Object[] getAll();
+
+    /**
+     * Get the Lua type of an argument, such as {@code "string"} or {@code "table"}.
+     *
+     * @param index The argument index, starting at 0.
+     * @return The type of this argument, or {@code "nil"} if it is not present.
+     */
+    @Nonnull
+    default String getType( int index )
+    {
+        Object value = get( index );
+        if( value == null ) return "nil";
+        if( value instanceof String ) return "string";
+        if( value instanceof Boolean ) return "boolean";
+        if( value instanceof Number ) return "number";
+        if( value instanceof Map ) return "table";
+        return "userdata";
+    }
+
+    /**
+     * Get an argument as a number.
+     *
+     * @param index The argument index, starting at 0.
+     * @return The argument's value.
+     * @throws LuaException If the argument is not a number.
+     */
+    default double getNumber( int index ) throws LuaException
+    {
+        Object value = get( index );
+        if( !(value instanceof Number) )
+        {
+            throw new LuaException( "bad argument #" + (index + 1) + " (number expected, got " + getType( index ) + ")" );
+        }
+        return ((Number) value).doubleValue();
+    }
+
+    /**
+     * Get an argument as a string.
+     *
+     * @param index The argument index, starting at 0.
+     * @return The argument's value.
+     * @throws LuaException If the argument is not a string.
+     */
+    @Nonnull
+    default String getString( int index ) throws LuaException
+    {
+        Object value = get( index );
+        if( !(value instanceof String) )
+        {
+            throw new LuaException( "bad argument #" + (index + 1) + " (string expected, got " + getType( index ) + ")" );
+        }
+        return (String) value;
+    }
+
+    /**
+     * Get the raw bytes of a string argument. Where possible, this will be a view of the underlying Lua string rather
+     * than a copy.
+     *
+     * @param index The argument index, starting at 0.
+     * @return A read-only buffer of the string's contents.
+     * @throws LuaException If the argument is not a string.
+     */
+    @Nonnull
+    default ByteBuffer getBytes( int index ) throws LuaException
+    {
+        String value = getString( index );
+        byte[] bytes = new byte[ value.length() ];
+        for( int i = 0; i < bytes.length; i++ )
+        {
+            char c = value.charAt( i );
+            bytes[ i ] = c < 256 ? (byte) c : 63;
+        }
+        return ByteBuffer.wrap( bytes ).asReadOnlyBuffer();
+    }
+
+    /**
+     * Write the raw bytes of a string argument to a stream. Where possible, this passes the underlying Lua string to
+     * the stream rather than copying it first.
+     *
+     * @param index  The argument index, starting at 0.
+     * @param stream The stream to write to. This must not modify the array it is given.
+     * @throws LuaException If the argument is not a string.
+     * @throws IOException  If the stream could not be written to.
+     */
+    default void writeBytes( int index, @Nonnull OutputStream stream ) throws LuaException, IOException
+    {
+        ByteBuffer value = getBytes( index );
+        byte[] bytes = new byte[ value.remaining() ];
+        value.get( bytes );
+        stream.write( bytes );
+    }
+}
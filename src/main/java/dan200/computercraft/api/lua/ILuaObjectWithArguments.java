@@ -0,0 +1,48 @@
+/*
+ * This file is part of the public ComputerCraft API - http://www.computercraft.info
+ * Copyright Daniel Ratcliffe, 2011-2017. This API may be redistributed unmodified and in full only.
+ * For help using the API, and posting your mods, visit the forums at computercraft.info.
+ */
+
+package dan200.computercraft.api.lua;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * An {@link ILuaObject} which receives its arguments as an {@link IArguments} view rather than an array of converted
+ * values.
+ *
+ * This is useful for methods which accept large strings or tables, as they are only converted if and when the method
+ * reads them.
+ */
+public interface ILuaObjectWithArguments extends ILuaObject
+{
+    /**
+     * Called when a user calls one of the methods that this object implements.
+     *
+     * @param context   The context of the currently running lua thread. This can be used to wait for events
+     *                  or otherwise yield.
+     * @param method    An integer identifying which of the methods from getMethodNames() the computercraft
+     *                  wishes to call.
+     * @param arguments The arguments for this method. These should not be used after this method returns.
+     * @return An array of objects, representing the values you wish to return to the Lua program. As well as the
+     * types accepted by {@link ILuaObject#callMethod(ILuaContext, int, Object[])}, you may return a
+     * {@link java.nio.ByteBuffer}, which will be converted to a string without copying where possible. The buffer
+     * must not be modified afterwards.
+     * @throws LuaException         If the method could not be executed.
+     * @throws InterruptedException If the user shuts down or reboots the computer the coroutine is suspended,
+     *                              InterruptedException will be thrown. This exception must not be caught or
+     *                              intercepted, or the computer will leak memory and end up in a broken state.
+     * @see ILuaObject#callMethod(ILuaContext, int, Object[])
+     */
+    @Nullable
+    Object[] callMethod( @Nonnull ILuaContext context, int method, @Nonnull IArguments arguments ) throws LuaException, InterruptedException;
+
+    @Nullable
+    @Override
+    default Object[] callMethod( @Nonnull ILuaContext context, int method, @Nonnull Object[] arguments ) throws LuaException, InterruptedException
+    {
+        return callMethod( context, method, new ObjectArguments( arguments ) );
+    }
+}
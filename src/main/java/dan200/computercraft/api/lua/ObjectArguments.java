@@ -0,0 +1,43 @@
+/*
+ * This file is part of the public ComputerCraft API - http://www.computercraft.info
+ * Copyright Daniel Ratcliffe, 2011-2017. This API may be redistributed unmodified and in full only.
+ * For help using the API, and posting your mods, visit the forums at computercraft.info.
+ */
+
+package dan200.computercraft.api.lua;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * An implementation of {@link IArguments} over an array of already converted values.
+ */
+public final class ObjectArguments implements IArguments
+{
+    private final Object[] arguments;
+
+    public ObjectArguments( @Nonnull Object[] arguments )
+    {
+        this.arguments = arguments;
+    }
+
+    @Override
+    public int count()
+    {
+        return arguments.length;
+    }
+
+    @Nullable
+    @Override
+    public Object get( int index )
+    {
+        return index >= 0 && index < arguments.length ? arguments[ index ] : null;
+    }
+
+    @Nonnull
+    @Override
+    public Object[] getAll()
+    {
+        return arguments;
+    }
+}
@@ -72,6 +72,8 @@ public class Packet
      * The actual data of this packet. This should be a "valid" Lua object, safe for queuing as an
      * event or returning from a peripheral call.
      *
+     * Tables sent by modems are frozen before they are transmitted, and so will be a read-only {@link java.util.Map}.
+     *
      * @return The packet's payload
      */
     @Nullable
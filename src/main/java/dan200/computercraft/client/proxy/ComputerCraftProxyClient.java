@@ -386,6 +386,7 @@ public class ComputerCraftProxyClient extends ComputerCraftProxyCommon
         {
             case ComputerCraftPacket.ComputerChanged:
             case ComputerCraftPacket.ComputerTerminalChanged:
+            case ComputerCraftPacket.ComputerTerminalDelta:
             case ComputerCraftPacket.ComputerDeleted:
             case ComputerCraftPacket.PlayRecord:
             {
@@ -422,6 +423,7 @@ public class ComputerCraftProxyClient extends ComputerCraftProxyCommon
             ///////////////////////////////////
             case ComputerCraftPacket.ComputerChanged:
             case ComputerCraftPacket.ComputerTerminalChanged:
+            case ComputerCraftPacket.ComputerTerminalDelta:
             {
                 int instanceID = packet.m_dataInt[ 0 ];
                 if( !ComputerCraft.clientComputerRegistry.contains( instanceID ) )
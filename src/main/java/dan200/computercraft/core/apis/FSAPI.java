@@ -19,6 +19,7 @@ import dan200.computercraft.core.filesystem.FileSystemException;
 import javax.annotation.Nonnull;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.ReadableByteChannel;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -232,12 +233,14 @@ public class FSAPI implements ILuaAPI
                         case "rb":
                         {
                             // Open the file for binary reading, then create a wrapper around the reader
-                            InputStream reader = m_fileSystem.openForRead( path );
+                            ReadableByteChannel reader = m_fileSystem.openChannelForRead( path );
                             return new Object[] { new BinaryInputHandle( reader ) };
                         }
                         case "wb":
                         {
-                            // Open the file for binary writing, then create a wrapper around the writer
+                            // Open the file for binary writing, then create a wrapper around the writer. Unlike "rb",
+                            // this is a stream rather than a channel: the mount's space accounting, write buffering and
+                            // deduplication all assume files are only written sequentially, so write handles cannot seek.
                             OutputStream writer = m_fileSystem.openForWrite( path, false );
                             return new Object[] { new BinaryOutputHandle( writer ) };
                         }
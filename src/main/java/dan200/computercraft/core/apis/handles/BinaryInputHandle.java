@@ -1,24 +1,45 @@
 package dan200.computercraft.core.apis.handles;
 
-import com.google.common.io.ByteStreams;
 import dan200.computercraft.api.lua.ILuaContext;
 import dan200.computercraft.api.lua.LuaException;
 
 import javax.annotation.Nonnull;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
 import java.util.Arrays;
 
 import static dan200.computercraft.core.apis.ArgumentHelper.getInt;
+import static dan200.computercraft.core.apis.ArgumentHelper.optInt;
+import static dan200.computercraft.core.apis.ArgumentHelper.optString;
 
 public class BinaryInputHandle extends HandleGeneric
 {
-    private final InputStream m_stream;
+    /**
+     * The size of the buffer used when reading from channels whose size is not known.
+     */
+    private static final int BUFFER_SIZE = 8192;
+
+    private final ReadableByteChannel m_channel;
+    private final SeekableByteChannel m_seekable;
+
+    private ByteBuffer m_buffer;
+    private final ByteBuffer m_single = ByteBuffer.allocate( 1 );
 
     public BinaryInputHandle( InputStream reader )
     {
-        super( reader );
-        this.m_stream = reader;
+        this( Channels.newChannel( reader ) );
+    }
+
+    public BinaryInputHandle( ReadableByteChannel channel )
+    {
+        super( channel );
+        this.m_channel = channel;
+        this.m_seekable = channel instanceof SeekableByteChannel ? (SeekableByteChannel) channel : null;
     }
 
     @Nonnull
@@ -29,6 +50,7 @@ public class BinaryInputHandle extends HandleGeneric
             "read",
             "readAll",
             "close",
+            "seek",
         };
     }
 
@@ -45,21 +67,19 @@ public class BinaryInputHandle extends HandleGeneric
                     if( args.length > 0 && args[ 0 ] != null )
                     {
                         int count = getInt( args, 0 );
-                        if( count <= 0 || count >= 1024 * 16 )
+                        if( count <= 0 )
                         {
                             throw new LuaException( "Count out of range" );
                         }
 
-                        byte[] bytes = new byte[ count ];
-                        count = m_stream.read( bytes );
-                        if( count < 0 ) return null;
-                        if( count < bytes.length ) bytes = Arrays.copyOf( bytes, count );
-                        return new Object[] { bytes };
+                        byte[] bytes = read( count );
+                        return bytes == null ? null : new Object[] { bytes };
                     }
                     else
                     {
-                        int b = m_stream.read();
-                        return b == -1 ? null : new Object[] { b };
+                        m_single.clear();
+                        int read = m_channel.read( m_single );
+                        return read <= 0 ? null : new Object[] { m_single.get( 0 ) & 0xFF };
                     }
                 }
                 catch( IOException e )
@@ -71,8 +91,8 @@ public class BinaryInputHandle extends HandleGeneric
                 checkOpen();
                 try
                 {
-                    byte[] out = ByteStreams.toByteArray( m_stream );
-                    return out == null ? null : new Object[] { out };
+                    byte[] bytes = read( Integer.MAX_VALUE );
+                    return new Object[] { bytes == null ? new byte[ 0 ] : bytes };
                 }
                 catch( IOException e )
                 {
@@ -82,8 +102,91 @@ public class BinaryInputHandle extends HandleGeneric
                 //close
                 close();
                 return null;
+            case 3:
+            {
+                // seek
+                checkOpen();
+                if( m_seekable == null ) return new Object[] { null, "File is not seekable" };
+
+                String whence = optString( args, 0, "cur" );
+                long offset = optInt( args, 1, 0 );
+                try
+                {
+                    long position;
+                    switch( whence )
+                    {
+                        case "set":
+                            position = offset;
+                            break;
+                        case "cur":
+                            position = m_seekable.position() + offset;
+                            break;
+                        case "end":
+                            position = m_seekable.size() + offset;
+                            break;
+                        default:
+                            throw new LuaException( "bad argument #1 (invalid option '" + whence + "')" );
+                    }
+
+                    if( position < 0 ) return new Object[] { null, "Position is negative" };
+                    m_seekable.position( position );
+                    return new Object[] { position };
+                }
+                catch( IOException e )
+                {
+                    return new Object[] { null, e.getMessage() };
+                }
+            }
             default:
                 return null;
         }
     }
+
+    /**
+     * Read up to {@code count} bytes from the channel.
+     *
+     * @param count The maximum number of bytes to read.
+     * @return The bytes read, or {@code null} if we are at the end of the file.
+     * @throws IOException If the file could not be read.
+     */
+    private byte[] read( int count ) throws IOException
+    {
+        if( m_seekable != null )
+        {
+            // We know how much is left, so read straight into an array of the right size.
+            long remaining = m_seekable.size() - m_seekable.position();
+            if( remaining <= 0 ) return null;
+
+            ByteBuffer buffer = ByteBuffer.allocate( (int) Math.min( count, remaining ) );
+            while( buffer.hasRemaining() )
+            {
+                if( m_channel.read( buffer ) < 0 ) break;
+            }
+
+            byte[] bytes = buffer.array();
+            if( buffer.position() < bytes.length ) bytes = Arrays.copyOf( bytes, buffer.position() );
+            return bytes;
+        }
+
+        if( m_buffer == null ) m_buffer = ByteBuffer.allocate( BUFFER_SIZE );
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream( Math.min( count, BUFFER_SIZE ) );
+        boolean end = false;
+        while( count > 0 )
+        {
+            m_buffer.clear();
+            m_buffer.limit( Math.min( count, BUFFER_SIZE ) );
+            int read = m_channel.read( m_buffer );
+            if( read < 0 )
+            {
+                end = true;
+                break;
+            }
+
+            output.write( m_buffer.array(), 0, read );
+            count -= read;
+        }
+
+        return end && output.size() == 0 ? null : output.toByteArray();
+    }
 }
@@ -1,15 +1,16 @@
 package dan200.computercraft.core.apis.handles;
 
+import dan200.computercraft.api.lua.IArguments;
 import dan200.computercraft.api.lua.ILuaContext;
+import dan200.computercraft.api.lua.ILuaObjectWithArguments;
 import dan200.computercraft.api.lua.LuaException;
 import dan200.computercraft.core.apis.ArgumentHelper;
-import dan200.computercraft.shared.util.StringUtil;
 
 import javax.annotation.Nonnull;
 import java.io.IOException;
 import java.io.OutputStream;
 
-public class BinaryOutputHandle extends HandleGeneric
+public class BinaryOutputHandle extends HandleGeneric implements ILuaObjectWithArguments
 {
     private final OutputStream m_writer;
 
@@ -31,7 +32,7 @@ public class BinaryOutputHandle extends HandleGeneric
     }
 
     @Override
-    public Object[] callMethod( @Nonnull ILuaContext context, int method, @Nonnull Object[] args ) throws LuaException
+    public Object[] callMethod( @Nonnull ILuaContext context, int method, @Nonnull IArguments args ) throws LuaException
     {
         switch( method )
         {
@@ -40,19 +41,20 @@ public class BinaryOutputHandle extends HandleGeneric
                 checkOpen();
                 try
                 {
-                    if( args.length > 0 && args[ 0 ] instanceof Number )
+                    String type = args.getType( 0 );
+                    if( type.equals( "number" ) )
                     {
-                        int number = ((Number) args[ 0 ]).intValue();
+                        int number = (int) args.getNumber( 0 );
                         m_writer.write( number );
                     }
-                    else if( args.length > 0 && args[ 0 ] instanceof String )
+                    else if( type.equals( "string" ) )
                     {
-                        String value = (String) args[ 0 ];
-                        m_writer.write( StringUtil.encodeString( value ) );
+                        // Write the string's bytes directly, rather than decoding and re-encoding it.
+                        args.writeBytes( 0, m_writer );
                     }
                     else
                     {
-                        throw ArgumentHelper.badArgument( 0, "string or number", args.length > 0 ? args[ 0 ] : null );
+                        throw ArgumentHelper.badArgument( 0, "string or number", type );
                     }
                     return null;
                 }
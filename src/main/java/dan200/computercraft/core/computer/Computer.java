@@ -7,6 +7,7 @@
 package dan200.computercraft.core.computer;
 
 import com.google.common.base.Objects;
+import com.google.common.collect.ImmutableSet;
 import dan200.computercraft.ComputerCraft;
 import dan200.computercraft.api.filesystem.IFileSystem;
 import dan200.computercraft.api.filesystem.IMount;
@@ -19,6 +20,7 @@ import dan200.computercraft.core.filesystem.FileSystem;
 import dan200.computercraft.core.filesystem.FileSystemException;
 import dan200.computercraft.core.lua.CobaltLuaMachine;
 import dan200.computercraft.core.lua.ILuaMachine;
+import dan200.computercraft.core.lua.PrototypeCache;
 import dan200.computercraft.core.terminal.Terminal;
 
 import javax.annotation.Nonnull;
@@ -26,7 +28,12 @@ import javax.annotation.Nullable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class Computer
 {    
@@ -263,6 +270,22 @@ public class Computer
         }
     }
 
+    /**
+     * The maximum number of events which may be waiting to be handled.
+     */
+    public static final int EVENT_LIMIT = 256;
+
+    /**
+     * Events which carry no information beyond "something changed", and so are coalesced when
+     * {@link ComputerCraft#coalesceEvents} is enabled.
+     */
+    private static final Set<String> COALESCED_EVENTS = ImmutableSet.of( "redstone", "monitor_resize", "term_resize" );
+
+    /**
+     * How long we may spend handling events before yielding to other computers.
+     */
+    private static final long EVENT_BATCH_TIME = TimeUnit.MILLISECONDS.toNanos( 5 );
+
     private static IMount s_romMount = null;
 
     private int m_id;
@@ -271,7 +294,7 @@ public class Computer
 
     private int m_ticksSinceStart;
     private boolean m_startRequested;
-    private State m_state;
+    private volatile State m_state;
     private boolean m_blinking;
 
     private ILuaMachine m_machine;
@@ -296,6 +319,13 @@ public class Computer
         
     private final IPeripheral[] m_peripherals;
 
+    private final EventQueue m_eventQueue;
+    private final AtomicBoolean m_eventsScheduled;
+    private volatile long m_lastActivity;
+    private final AtomicLong m_allocated = new AtomicLong();
+    private final ITask m_eventTask;
+    private final EventQueue.Handler m_eventHandler;
+
     public Computer( IComputerEnvironment environment, Terminal terminal, int id )
     {
         ComputerThread.start();
@@ -334,6 +364,25 @@ public class Computer
             m_peripherals[i] = null;
         }
 
+        m_eventQueue = new EventQueue( EVENT_LIMIT, ComputerCraft.coalesceEvents ? COALESCED_EVENTS : Collections.<String>emptySet() );
+        m_eventsScheduled = new AtomicBoolean( false );
+        m_eventTask = new ITask()
+        {
+            @Override
+            public Computer getOwner()
+            {
+                return Computer.this;
+            }
+
+            @Override
+            public void execute()
+            {
+                handleEvents();
+            }
+        };
+        m_eventHandler = this::handleEvent;
+        m_lastActivity = System.nanoTime();
+
         m_rootMount = null;
         createAPIs();
     }
@@ -526,6 +575,57 @@ public class Computer
         }
     }
 
+    /**
+     * Get the number of events which were dropped because too many events were waiting to be handled.
+     *
+     * @return The number of dropped events.
+     */
+    public long getDroppedEvents()
+    {
+        return m_eventQueue.getOverflowed();
+    }
+
+    /**
+     * Record memory allocated by this computer while handling an event.
+     *
+     * @param bytes The number of bytes allocated.
+     */
+    public void addAllocation( long bytes )
+    {
+        if( bytes > 0 ) m_allocated.addAndGet( bytes );
+    }
+
+    /**
+     * Get the total number of bytes this computer has allocated while handling events. This counts short-lived
+     * garbage, and so is not how much memory the computer currently holds.
+     *
+     * @return The number of bytes allocated.
+     */
+    public long getAllocated()
+    {
+        return m_allocated.get();
+    }
+
+    /**
+     * Get the number of events which were merged into an identical event which was already waiting.
+     *
+     * @return The number of coalesced events.
+     */
+    public long getCoalescedEvents()
+    {
+        return m_eventQueue.getCoalesced();
+    }
+
+    /**
+     * Get how long it has been since this computer last handled an event.
+     *
+     * @return The time since this computer last ran, in nanoseconds.
+     */
+    public long getIdleTime()
+    {
+        return System.nanoTime() - m_lastActivity;
+    }
+
     public IWritableMount getRootMount()
     {
         if( m_rootMount == null )
@@ -547,6 +647,7 @@ public class Computer
             if( s_romMount == null )
             {
                 s_romMount = m_environment.createResourceMount( "computercraft", "lua/rom" );
+                if( s_romMount != null ) PrototypeCache.INSTANCE.addMount( s_romMount );
             }
             if( s_romMount != null )
             {
@@ -792,6 +893,10 @@ public class Computer
             m_state = State.Starting;
             m_externalOutputChanged = true;
             m_ticksSinceStart = 0;
+
+            // Any event task from a previous run may have been discarded (for instance, when the computer thread was
+            // stopped), so make sure we can schedule a new one.
+            m_eventsScheduled.set( false );
         }
         
         // Turn the computercraft on
@@ -891,6 +996,9 @@ public class Computer
                         return;
                     }
                                 
+                    // Discard any events which were queued before we started stopping
+                    m_eventQueue.clear();
+
                     // Shutdown our APIs
                     synchronized( m_apis )
                     {
@@ -945,49 +1053,80 @@ public class Computer
     
     public void queueEvent( final String event, final Object[] arguments )
     {
-        synchronized( this )
+        if( m_state != State.Running )
         {
-            if( m_state != State.Running )
-            {
-                return;
-            }
+            return;
         }
-            
-        final Computer computer = this;
-        ITask task = new ITask() {
-            @Override
-            public Computer getOwner()
-            {
-                return computer;
-            }
 
-            @Override
-            public void execute()
+        // Only schedule a task if one is not already pending: it will pick up this event too.
+        if( m_eventQueue.offer( event, arguments ) )
+        {
+            scheduleEvents();
+        }
+    }
+
+    /**
+     * Schedule {@link #m_eventTask} if it is not already pending.
+     */
+    private void scheduleEvents()
+    {
+        if( m_eventsScheduled.compareAndSet( false, true ) && !ComputerThread.queueTask( m_eventTask, this ) )
+        {
+            // The task was dropped, so allow the next event to try again.
+            m_eventsScheduled.set( false );
+        }
+    }
+
+    /**
+     * Handle events from {@link #m_eventQueue} until it is empty or we have used up our time, rescheduling ourselves
+     * if there is more work to do.
+     */
+    private void handleEvents()
+    {
+        try
+        {
+            long deadline = System.nanoTime() + EVENT_BATCH_TIME;
+            while( true )
             {
-                synchronized( this )
+                if( m_state != State.Running )
                 {
-                    if( m_state != State.Running )
-                    {
-                        return;
-                    }
+                    m_eventQueue.clear();
+                    break;
                 }
-                
-                synchronized( m_machine )
-                {
-                    m_machine.handleEvent( event, arguments );
-                    if( m_machine.isFinished() )
-                    {
-                        m_terminal.reset();
-                        m_terminal.write( "Error resuming bios.lua" );
-                        m_terminal.setCursorPos( 0, 1 );
-                        m_terminal.write( "ComputerCraft may be installed incorrectly" );
 
-                        stopComputer( false );
-                    }
-                }
+                if( !m_eventQueue.poll( m_eventHandler ) || System.nanoTime() >= deadline ) break;
             }
-        };
-        
-        ComputerThread.queueTask( task, computer );
+        }
+        finally
+        {
+            m_lastActivity = System.nanoTime();
+
+            // Allow queueEvent to schedule us again, then check we didn't miss an event queued in the meantime. This
+            // must happen even if handling an event failed, otherwise no further events would ever be delivered.
+            m_eventsScheduled.set( false );
+            if( !m_eventQueue.isEmpty() ) scheduleEvents();
+        }
+    }
+
+    private void handleEvent( String event, Object[] arguments )
+    {
+        if( m_state != State.Running )
+        {
+            return;
+        }
+
+        synchronized( m_machine )
+        {
+            m_machine.handleEvent( event, arguments );
+            if( m_machine.isFinished() )
+            {
+                m_terminal.reset();
+                m_terminal.write( "Error resuming bios.lua" );
+                m_terminal.setCursorPos( 0, 1 );
+                m_terminal.write( "ComputerCraft may be installed incorrectly" );
+
+                stopComputer( false );
+            }
+        }
     }
 }
@@ -8,55 +8,100 @@ package dan200.computercraft.core.computer;
 
 import dan200.computercraft.ComputerCraft;
 
-import java.util.HashSet;
-import java.util.Set;
+import javax.annotation.Nonnull;
+import java.util.ArrayDeque;
+import java.util.TreeSet;
 import java.util.WeakHashMap;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
-
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs tasks for each computer on a pool of worker threads.
+ *
+ * Rather than running computers in the order they asked for time, we use a fair-share scheduler: each computer has a
+ * "virtual runtime", which is the total time its tasks have spent executing. When a worker becomes free, it runs the
+ * next task from the computer with the lowest virtual runtime. This means computers which only handle the occasional
+ * event (such as one waiting on user input) are served before ones which spend all their time crunching numbers.
+ *
+ * Computers which have been idle for a while have their virtual runtime brought up to close to the current minimum
+ * (see {@link #LATENCY_SLACK}), so they cannot build up enough credit to starve everyone else when they wake up.
+ *
+ * Tasks are executed directly on the worker threads. A separate monitor thread watches when each worker started its
+ * current task, and soft aborts, hard aborts and finally abandons any worker whose task runs for too long.
+ */
 public class ComputerThread
 {
     private static final int QUEUE_LIMIT = 256;
 
+    /**
+     * The amount of credit an idle computer may hold when it is rescheduled, relative to the least-run active computer.
+     */
+    private static final long LATENCY_SLACK = TimeUnit.MILLISECONDS.toNanos( 50 );
+
     /**
      * Lock used for modifications to the object
      */
     private static final Object s_stateLock = new Object();
 
     /**
-     * Lock for various task operations
+     * Lock for various task operations. Worker threads wait on this when there is no work to do.
      */
     private static final Object s_taskLock = new Object();
 
     /**
      * Map of objects to task list
      */
-    private static final WeakHashMap<Object, BlockingQueue<ITask>> s_computerTaskQueues = new WeakHashMap<>();
+    private static final WeakHashMap<Object, TaskQueue> s_computerTaskQueues = new WeakHashMap<>();
 
     /**
-     * Active queues to execute
+     * Queues with pending tasks, ordered by their virtual runtime. Queues are removed while they are being
+     * executed, and so will never be run on two threads at once.
      */
-    private static final BlockingQueue<BlockingQueue<ITask>> s_computerTasksActive = new LinkedBlockingQueue<>();
-    private static final Set<BlockingQueue<ITask>> s_computerTasksActiveSet = new HashSet<>();
+    private static final TreeSet<TaskQueue> s_computerTasksActive = new TreeSet<>();
+
+    /**
+     * The lowest virtual runtime of any active queue. This only ever increases.
+     */
+    private static long s_minimumVirtualRuntime = 0;
 
     /**
      * The default object for items which don't have an owner
      */
     private static final Object s_defaultOwner = new Object();
 
+    /**
+     * How long a task may run before we attempt to soft abort it.
+     */
+    private static final long TIMEOUT = TimeUnit.MILLISECONDS.toNanos( 7000 );
+
+    /**
+     * How long we wait after each abort before escalating to the next one.
+     */
+    private static final long ABORT_TIMEOUT = TimeUnit.MILLISECONDS.toNanos( 1500 );
+
+    /**
+     * How often the monitor thread checks for tasks which have run for too long, in milliseconds.
+     */
+    private static final long MONITOR_WAKEUP = 100;
+
     /**
      * Whether the thread is stopped or should be stopped
      */
     private static boolean s_stopped = false;
 
     /**
-     * The thread tasks execute on
+     * The runners tasks execute on
+     */
+    private static TaskRunner[] s_runners = null;
+
+    /**
+     * The thread which watches {@link #s_runners} and aborts any tasks which run for too long.
      */
-    private static Thread[] s_threads = null;
+    private static Thread s_monitor = null;
 
-    private static final AtomicInteger s_ManagerCounter = new AtomicInteger( 1 );
-    private static final AtomicInteger s_DelegateCounter = new AtomicInteger( 1 );
+    private static final AtomicInteger s_RunnerCounter = new AtomicInteger( 1 );
+    private static final AtomicLong s_QueueCounter = new AtomicLong();
 
     /**
      * Start the computer thread
@@ -66,23 +111,26 @@ public class ComputerThread
         synchronized( s_stateLock )
         {
             s_stopped = false;
-            if( s_threads == null || s_threads.length != ComputerCraft.computer_threads )
+            if( s_runners == null || s_runners.length != ComputerCraft.computer_threads )
             {
-                s_threads = new Thread[ ComputerCraft.computer_threads ];
+                s_runners = new TaskRunner[ ComputerCraft.computer_threads ];
             }
 
-            SecurityManager manager = System.getSecurityManager();
-            final ThreadGroup group = manager == null ? Thread.currentThread().getThreadGroup() : manager.getThreadGroup();
-            for( int i = 0; i < s_threads.length; i++ )
+            for( int i = 0; i < s_runners.length; i++ )
             {
-                Thread thread = s_threads[ i ];
-                if( thread == null || !thread.isAlive() )
+                TaskRunner runner = s_runners[ i ];
+                if( runner == null || runner.abandoned || !runner.thread.isAlive() )
                 {
-                    thread = s_threads[ i ] = new Thread( group, new TaskExecutor(), "ComputerCraft-Computer-Manager-" + s_ManagerCounter.getAndIncrement() );
-                    thread.setDaemon( true );
-                    thread.start();
+                    s_runners[ i ] = createRunner();
                 }
             }
+
+            if( s_monitor == null || !s_monitor.isAlive() )
+            {
+                Thread monitor = s_monitor = new Thread( getThreadGroup(), new TaskMonitor(), "ComputerCraft-Computer-Monitor" );
+                monitor.setDaemon( true );
+                monitor.start();
+            }
         }
     }
 
@@ -93,68 +141,195 @@ public class ComputerThread
     {
         synchronized( s_stateLock )
         {
-            if( s_threads != null )
+            if( s_runners != null )
             {
                 s_stopped = true;
-                for( Thread thread : s_threads )
+                for( TaskRunner runner : s_runners )
                 {
-                    if( thread != null && thread.isAlive() )
+                    if( runner != null && runner.thread.isAlive() )
                     {
-                        thread.interrupt();
+                        runner.thread.interrupt();
                     }
                 }
             }
+
+            if( s_monitor != null && s_monitor.isAlive() )
+            {
+                s_monitor.interrupt();
+            }
         }
 
-        synchronized( s_taskLock )
+        synchronized( s_computerTaskQueues )
         {
             s_computerTaskQueues.clear();
+        }
+
+        synchronized( s_taskLock )
+        {
             s_computerTasksActive.clear();
-            s_computerTasksActiveSet.clear();
+            s_minimumVirtualRuntime = 0;
         }
     }
 
+    private static ThreadGroup getThreadGroup()
+    {
+        SecurityManager manager = System.getSecurityManager();
+        return manager == null ? Thread.currentThread().getThreadGroup() : manager.getThreadGroup();
+    }
+
+    private static TaskRunner createRunner()
+    {
+        TaskRunner runner = new TaskRunner();
+        Thread thread = runner.thread = new Thread( getThreadGroup(), runner, "ComputerCraft-Computer-Runner-" + s_RunnerCounter.getAndIncrement() );
+        thread.setDaemon( true );
+        thread.start();
+        return runner;
+    }
+
     /**
      * Queue a task to execute on the thread
      *
      * @param task     The task to execute
      * @param computer The computer to execute it on, use {@code null} to execute on the default object.
+     * @return Whether the task was queued. This will be {@code false} if the computer has too many pending tasks.
      */
-    public static void queueTask( ITask task, Computer computer )
+    public static boolean queueTask( ITask task, Computer computer )
     {
         Object queueObject = computer == null ? s_defaultOwner : computer;
 
-        BlockingQueue<ITask> queue;
+        TaskQueue queue;
         synchronized( s_computerTaskQueues )
         {
             queue = s_computerTaskQueues.get( queueObject );
             if( queue == null )
             {
-                s_computerTaskQueues.put( queueObject, queue = new LinkedBlockingQueue<>( QUEUE_LIMIT ) );
+                s_computerTaskQueues.put( queueObject, queue = new TaskQueue() );
+            }
+        }
+
+        synchronized( s_taskLock )
+        {
+            if( queue.tasks.size() >= QUEUE_LIMIT ) return false;
+            queue.tasks.addLast( new QueuedTask( task, System.nanoTime() ) );
+
+            if( !queue.scheduled )
+            {
+                // Don't allow computers which have been sleeping to build up an unbounded amount of credit.
+                queue.scheduled = true;
+                queue.virtualRuntime = Math.max( queue.virtualRuntime, s_minimumVirtualRuntime - LATENCY_SLACK );
+                s_computerTasksActive.add( queue );
+                s_taskLock.notify();
             }
         }
 
+        return true;
+    }
+
+    /**
+     * Wait for a queue with pending tasks, removing the one with the lowest virtual runtime.
+     *
+     * @return The queue to execute.
+     * @throws InterruptedException If the thread was interrupted while waiting.
+     */
+    private static TaskQueue takeQueue() throws InterruptedException
+    {
+        synchronized( s_taskLock )
+        {
+            while( s_computerTasksActive.isEmpty() ) s_taskLock.wait();
+            return s_computerTasksActive.pollFirst();
+        }
+    }
+
+    /**
+     * Charge a queue for the time its task took to execute, and reschedule it if it has more work to do.
+     *
+     * @param queue   The queue which was executed
+     * @param elapsed The time the task spent executing, in nanoseconds
+     */
+    private static void afterExecute( TaskQueue queue, long elapsed )
+    {
         synchronized( s_taskLock )
         {
-            if( queue.offer( task ) && !s_computerTasksActiveSet.contains( queue ) )
+            queue.virtualRuntime += elapsed;
+
+            if( queue.tasks.isEmpty() )
+            {
+                queue.scheduled = false;
+            }
+            else
             {
                 s_computerTasksActive.add( queue );
-                s_computerTasksActiveSet.add( queue );
+                s_taskLock.notify();
             }
+
+            TaskQueue first = s_computerTasksActive.isEmpty() ? queue : s_computerTasksActive.first();
+            if( first.virtualRuntime > s_minimumVirtualRuntime ) s_minimumVirtualRuntime = first.virtualRuntime;
         }
     }
 
     /**
-     * Responsible for pulling and managing computer tasks. This pulls a task from {@link #s_computerTasksActive},
-     * creates a new thread using {@link TaskRunner} or reuses a previous one and uses that to execute the task.
+     * The pending tasks for a single computer (or for the default owner), along with its scheduling information.
      *
-     * If the task times out, then it will attempt to interrupt the {@link TaskRunner} instance.
+     * All fields are guarded by {@link ComputerThread#s_taskLock}.
      */
-    private static final class TaskExecutor implements Runnable
+    private static final class TaskQueue implements Comparable<TaskQueue>
+    {
+        private final long id = s_QueueCounter.getAndIncrement();
+        private final ArrayDeque<QueuedTask> tasks = new ArrayDeque<>();
+
+        /**
+         * The total time this queue has spent executing, adjusted when it wakes from being idle.
+         */
+        private long virtualRuntime;
+
+        /**
+         * Whether this queue is either in {@link ComputerThread#s_computerTasksActive} or currently being executed.
+         */
+        private boolean scheduled;
+
+        @Override
+        public int compareTo( @Nonnull TaskQueue other )
+        {
+            int result = Long.compare( virtualRuntime, other.virtualRuntime );
+            return result != 0 ? result : Long.compare( id, other.id );
+        }
+    }
+
+    private static final class QueuedTask
+    {
+        final ITask task;
+        final long queued;
+
+        QueuedTask( ITask task, long queued )
+        {
+            this.task = task;
+            this.queued = queued;
+        }
+    }
+
+    /**
+     * Responsible for pulling and running computer tasks. This pulls the least-run queue from
+     * {@link #s_computerTasksActive} and executes its next task directly on this thread.
+     *
+     * Timeouts are enforced by the {@link TaskMonitor}, which observes when the current task was started. If the task
+     * ignores all abort requests, the monitor abandons this runner and starts a new one in its place.
+     */
+    private static final class TaskRunner implements Runnable
     {
-        private TaskRunner runner;
         private Thread thread;
 
+        /**
+         * Set when the monitor has given up on this runner. The thread will exit once its current task finishes.
+         */
+        private volatile boolean abandoned;
+
+        // The currently executing task. These are guarded by this runner's monitor, as they are also read by the
+        // TaskMonitor.
+        private TaskQueue queue;
+        private QueuedTask current;
+        private long start;
+        private int abortStage;
+
         @Override
         public void run()
         {
@@ -163,7 +338,7 @@ public class ComputerThread
                 while( true )
                 {
                     // Wait for an active queue to execute
-                    BlockingQueue<ITask> queue = s_computerTasksActive.take();
+                    TaskQueue queue = takeQueue();
 
                     // If threads should be stopped then return
                     synchronized( s_stateLock )
@@ -172,6 +347,9 @@ public class ComputerThread
                     }
 
                     execute( queue );
+
+                    // If we took too long, another runner will have replaced us.
+                    if( abandoned ) return;
                 }
             }
             catch( InterruptedException ignored )
@@ -180,87 +358,112 @@ public class ComputerThread
             }
         }
 
-        private void execute( BlockingQueue<ITask> queue ) throws InterruptedException
+        private void execute( TaskQueue queue )
         {
-            ITask task = queue.remove();
-
-            if( thread == null || !thread.isAlive() )
+            QueuedTask queued;
+            synchronized( s_taskLock )
             {
-                runner = new TaskRunner();
+                queued = queue.tasks.removeFirst();
+            }
 
-                SecurityManager manager = System.getSecurityManager();
-                final ThreadGroup group = manager == null ? Thread.currentThread().getThreadGroup() : manager.getThreadGroup();
-                Thread thread = this.thread = new Thread( group, runner, "ComputerCraft-Computer-Runner" + s_DelegateCounter.getAndIncrement() );
-                thread.setDaemon( true );
-                thread.start();
+            synchronized( this )
+            {
+                this.queue = queue;
+                this.current = queued;
+                this.start = System.nanoTime();
+                this.abortStage = 0;
             }
 
-            long start = System.nanoTime();
+            try
+            {
+                queued.task.execute();
+            }
+            catch( RuntimeException e )
+            {
+                ComputerCraft.log.error( "Error running task.", e );
+            }
+            finally
+            {
+                finish( queued, System.nanoTime() );
+            }
+        }
 
-            // Execute the task
-            runner.submit( task );
+        /**
+         * Check whether the current task has run for too long, and attempt to soft abort, hard abort and then
+         * abandon it.
+         *
+         * @param now The current time, in nanoseconds.
+         */
+        void checkTimeout( long now )
+        {
+            QueuedTask task;
+            int stage;
+            synchronized( this )
+            {
+                task = current;
+                if( task == null || now - start < TIMEOUT + abortStage * ABORT_TIMEOUT ) return;
+                stage = abortStage++;
+            }
 
-            try
+            Computer computer = task.task.getOwner();
+            switch( stage )
             {
-                // If we timed out rather than exiting:
-                boolean done = runner.await( 7000 );
-                if( !done )
+                case 0:
+                    if( computer != null ) computer.abort( false );
+                    break;
+                case 1:
+                    if( computer != null ) computer.abort( true );
+                    break;
+                default:
                 {
-                    // Attempt to soft then hard abort
-                    Computer computer = task.getOwner();
-                    if( computer != null )
+                    synchronized( this )
                     {
-                        computer.abort( false );
-
-                        done = runner.await( 1500 );
-                        if( !done )
-                        {
-                            computer.abort( true );
-                            done = runner.await( 1500 );
-                        }
+                        if( current != task ) return;
+                        abandoned = true;
                     }
 
-                    // Interrupt the thread
-                    if( !done )
-                    {
-                        thread.interrupt();
-                        thread = null;
-                        runner = null;
-                    }
+                    // Interrupt the thread and release its queue, so the computer can continue on another runner.
+                    thread.interrupt();
+                    finish( task, now );
+                    break;
                 }
             }
-            finally
+        }
+
+        /**
+         * Mark a task as finished, recording its timings and rescheduling its queue. This is called by the runner
+         * itself and by the monitor when abandoning a task, so we only do anything if the task is still current.
+         *
+         * @param task The task which has finished
+         * @param stop The time the task finished, in nanoseconds.
+         */
+        private void finish( QueuedTask task, long stop )
+        {
+            TaskQueue queue;
+            long start;
+            synchronized( this )
             {
-                long stop = System.nanoTime();
-                Computer computer = task.getOwner();
-                if( computer != null ) ComputerTimeTracker.addTiming( computer, stop - start );
-                
-                // Re-add it back onto the queue or remove it
-                synchronized( s_taskLock )
-                {
-                    if( queue.isEmpty() )
-                    {
-                        s_computerTasksActiveSet.remove( queue );
-                    }
-                    else
-                    {
-                        s_computerTasksActive.add( queue );
-                    }
-                }
+                if( current != task ) return;
+                queue = this.queue;
+                start = this.start;
+                this.queue = null;
+                this.current = null;
             }
+
+            Computer computer = task.task.getOwner();
+            if( computer != null ) ComputerTimeTracker.addTiming( computer, stop - start, start - task.queued );
+
+            // Charge the queue for its time and either reschedule it or mark it as idle
+            afterExecute( queue, stop - start );
         }
     }
 
     /**
-     * Responsible for the actual running of tasks. It waitin for the {@link TaskRunner#input} semaphore to be
-     * triggered, consumes a task and then triggers {@link TaskRunner#finished}.
+     * Periodically checks each {@link TaskRunner} for tasks which have run for too long, and replaces any runners
+     * which have been abandoned or have died.
      */
-    private static final class TaskRunner implements Runnable
+    private static final class TaskMonitor implements Runnable
     {
-        private final Semaphore input = new Semaphore();
-        private final Semaphore finished = new Semaphore();
-        private ITask task;
-
         @Override
         public void run()
         {
@@ -268,68 +471,32 @@ public class ComputerThread
             {
                 while( true )
                 {
-                    input.await();
-                    try
-                    {
-                        task.execute();
-                    }
-                    catch( RuntimeException e )
+                    Thread.sleep( MONITOR_WAKEUP );
+
+                    TaskRunner[] runners;
+                    synchronized( s_stateLock )
                     {
-                        ComputerCraft.log.error( "Error running task.", e );
+                        if( s_stopped ) return;
+
+                        runners = s_runners;
+                        for( int i = 0; i < runners.length; i++ )
+                        {
+                            TaskRunner runner = runners[ i ];
+                            if( runner == null || runner.abandoned || !runner.thread.isAlive() )
+                            {
+                                runners[ i ] = createRunner();
+                            }
+                        }
                     }
-                    task = null;
-                    finished.signal();
+
+                    long now = System.nanoTime();
+                    for( TaskRunner runner : runners ) runner.checkTimeout( now );
                 }
             }
-            catch( InterruptedException e )
+            catch( InterruptedException ignored )
             {
-                ComputerCraft.log.error( "Error running task.", e );
                 Thread.currentThread().interrupt();
             }
         }
-
-        void submit( ITask task )
-        {
-            this.task = task;
-            input.signal();
-        }
-
-        boolean await( long timeout ) throws InterruptedException
-        {
-            return finished.await( timeout );
-        }
-    }
-
-    /**
-     * A simple method to allow awaiting/providing a signal.
-     *
-     * Java does provide similar classes, but I only needed something simple.
-     */
-    private static final class Semaphore
-    {
-        private volatile boolean state = false;
-
-        synchronized void signal()
-        {
-            state = true;
-            notify();
-        }
-
-        synchronized void await() throws InterruptedException
-        {
-            while( !state ) wait();
-            state = false;
-        }
-
-        synchronized boolean await( long timeout ) throws InterruptedException
-        {
-            if( !state )
-            {
-                wait( timeout );
-                if( !state ) return false;
-            }
-            state = false;
-            return true;
-        }
     }
 }
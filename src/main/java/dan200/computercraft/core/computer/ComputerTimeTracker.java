@@ -6,12 +6,15 @@ import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
- * Tracks timing information about computers, including how long they ran for
- * and the number of events they handled.
+ * Tracks timing information about computers, including how long they ran for,
+ * the number of events they handled, how long those events waited before
+ * being run and how much memory they allocated.
  *
  * Note that this <em>will</em> track computers which have been deleted (hence
  * the presence of {@link #timingLookup} and {@link #timings}
@@ -20,6 +23,12 @@ public class ComputerTimeTracker
 {
     public static class Timings
     {
+        /**
+         * The maximum number of latency samples we keep. Once this is reached, we
+         * use reservoir sampling to keep a representative subset.
+         */
+        private static final int LATENCY_SAMPLES = 1024;
+
         private final WeakReference<Computer> computer;
         private final int computerId;
 
@@ -28,10 +37,19 @@ public class ComputerTimeTracker
         private long totalTime;
         private long maxTime;
 
+        /**
+         * The computer's allocation counter when we started tracking it.
+         */
+        private final long allocatedBaseline;
+        private long allocated;
+
+        private final long[] latencies = new long[ LATENCY_SAMPLES ];
+
         public Timings( @Nonnull Computer computer )
         {
             this.computer = new WeakReference<>( computer );
             this.computerId = computer.getID();
+            this.allocatedBaseline = computer.getAllocated();
         }
 
         @Nullable
@@ -60,16 +78,55 @@ public class ComputerTimeTracker
             return maxTime;
         }
 
+        /**
+         * Get how much memory the computer has allocated since we started tracking it.
+         *
+         * @return The number of bytes allocated.
+         */
+        public long getAllocated()
+        {
+            Computer computer = this.computer.get();
+            if( computer != null ) allocated = computer.getAllocated() - allocatedBaseline;
+            return allocated;
+        }
+
         public double getAverage()
         {
             return totalTime / (double) tasks;
         }
 
-        void update( long time )
+        /**
+         * Get an estimate of how long tasks waited in the queue before being executed.
+         *
+         * @param percentile The percentile to fetch, between 0 and 1.
+         * @return The latency at this percentile, in nanoseconds.
+         */
+        public long getLatencyPercentile( double percentile )
+        {
+            int count = Math.min( tasks, LATENCY_SAMPLES );
+            if( count == 0 ) return 0;
+
+            long[] sorted = Arrays.copyOf( latencies, count );
+            Arrays.sort( sorted );
+            int index = (int) Math.ceil( percentile * count ) - 1;
+            return sorted[ Math.max( 0, Math.min( count - 1, index ) ) ];
+        }
+
+        void update( long time, long latency )
         {
             tasks++;
             totalTime += time;
             if( time > maxTime ) maxTime = time;
+
+            if( tasks <= LATENCY_SAMPLES )
+            {
+                latencies[ tasks - 1 ] = latency;
+            }
+            else
+            {
+                int index = ThreadLocalRandom.current().nextInt( tasks );
+                if( index < LATENCY_SAMPLES ) latencies[ index ] = latency;
+            }
         }
     }
 
@@ -99,10 +156,14 @@ public class ComputerTimeTracker
         return new ArrayList<>( timings );
     }
 
-    public static synchronized void addTiming( Computer computer, long time )
+    public static synchronized void addTiming( Computer computer, long time, long latency )
     {
         if( !tracking ) return;
+        getTimings( computer ).update( time, latency );
+    }
 
+    private static Timings getTimings( Computer computer )
+    {
         Timings timings = ComputerTimeTracker.timingLookup.get( computer );
         if( timings == null )
         {
@@ -111,6 +172,6 @@ public class ComputerTimeTracker
             ComputerTimeTracker.timings.add( timings );
         }
 
-        timings.update( time );
+        return timings;
     }
 }
@@ -0,0 +1,214 @@
+/*
+ * This file is part of ComputerCraft - http://www.computercraft.info
+ * Copyright Daniel Ratcliffe, 2011-2017. Do not distribute without permission.
+ * Send enquiries to dratcliffe@gmail.com
+ */
+
+package dan200.computercraft.core.computer;
+
+import javax.annotation.Nonnull;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A bounded, lock-free queue of events waiting to be handled by a computer.
+ *
+ * Any thread may add events to the queue, but only one thread may remove them at a time. For computers, this is
+ * guaranteed by {@link ComputerThread}, which never runs two tasks for the same computer at once.
+ *
+ * Events named in the coalescing set will not be queued if an identical event (one with the same name and arguments)
+ * is already waiting to be handled. This means a flood of events such as {@code redstone} only results in a single
+ * event being delivered.
+ */
+public final class EventQueue
+{
+    public interface Handler
+    {
+        void handle( String event, Object[] arguments );
+    }
+
+    private final int m_mask;
+    private final AtomicLongArray m_sequence;
+    private final String[] m_events;
+    private final Object[][] m_arguments;
+
+    private final AtomicLong m_tail = new AtomicLong();
+    private long m_head = 0;
+
+    private final Set<String> m_coalesce;
+    private final Set<EventKey> m_pending = Collections.newSetFromMap( new ConcurrentHashMap<>() );
+
+    private final AtomicLong m_overflowed = new AtomicLong();
+    private final AtomicLong m_coalesced = new AtomicLong();
+
+    /**
+     * Create a new event queue.
+     *
+     * @param capacity The maximum number of events which may be queued. This will be rounded up to the next power of
+     *                 two.
+     * @param coalesce The names of events which should be coalesced.
+     */
+    public EventQueue( int capacity, @Nonnull Set<String> coalesce )
+    {
+        int size = Integer.highestOneBit( Math.max( 2, capacity ) - 1 ) << 1;
+        m_mask = size - 1;
+        m_sequence = new AtomicLongArray( size );
+        m_events = new String[ size ];
+        m_arguments = new Object[ size ][];
+        for( int i = 0; i < size; i++ ) m_sequence.set( i, i );
+
+        m_coalesce = coalesce;
+    }
+
+    /**
+     * Add an event to the queue. This may be called from any thread.
+     *
+     * @param event     The name of the event
+     * @param arguments The event's arguments
+     * @return Whether the event was queued (or coalesced with an existing event). This will be {@code false} if the
+     * queue is full.
+     */
+    public boolean offer( String event, Object[] arguments )
+    {
+        EventKey key = null;
+        if( m_coalesce.contains( event ) )
+        {
+            key = new EventKey( event, arguments );
+            if( !m_pending.add( key ) )
+            {
+                m_coalesced.incrementAndGet();
+                return true;
+            }
+        }
+
+        long position = m_tail.get();
+        int index;
+        while( true )
+        {
+            index = (int) (position & m_mask);
+            long difference = m_sequence.get( index ) - position;
+            if( difference == 0 )
+            {
+                if( m_tail.compareAndSet( position, position + 1 ) ) break;
+                position = m_tail.get();
+            }
+            else if( difference < 0 )
+            {
+                // The consumer has not yet freed this slot, so the queue is full.
+                if( key != null ) m_pending.remove( key );
+                m_overflowed.incrementAndGet();
+                return false;
+            }
+            else
+            {
+                position = m_tail.get();
+            }
+        }
+
+        m_events[ index ] = event;
+        m_arguments[ index ] = arguments;
+        m_sequence.lazySet( index, position + 1 );
+        return true;
+    }
+
+    /**
+     * Remove the next event from the queue and pass it to a handler. This must only be called from one thread at a
+     * time.
+     *
+     * @param handler The handler to consume the event
+     * @return Whether an event was available.
+     */
+    public boolean poll( @Nonnull Handler handler )
+    {
+        long position = m_head;
+        int index = (int) (position & m_mask);
+        if( m_sequence.get( index ) != position + 1 ) return false;
+
+        String event = m_events[ index ];
+        Object[] arguments = m_arguments[ index ];
+        m_events[ index ] = null;
+        m_arguments[ index ] = null;
+        m_head = position + 1;
+        m_sequence.lazySet( index, position + m_mask + 1 );
+
+        if( m_coalesce.contains( event ) ) m_pending.remove( new EventKey( event, arguments ) );
+
+        handler.handle( event, arguments );
+        return true;
+    }
+
+    /**
+     * Remove all queued events. This must only be called from the consuming thread.
+     */
+    public void clear()
+    {
+        Handler discard = ( event, arguments ) -> { };
+        while( poll( discard ) )
+        {
+        }
+    }
+
+    /**
+     * Determine whether there are any events waiting to be handled. This should only be called from the consuming
+     * thread.
+     *
+     * @return Whether the queue is empty.
+     */
+    public boolean isEmpty()
+    {
+        long position = m_head;
+        return m_sequence.get( (int) (position & m_mask) ) != position + 1;
+    }
+
+    /**
+     * Get the number of events which were dropped because the queue was full.
+     *
+     * @return The number of dropped events.
+     */
+    public long getOverflowed()
+    {
+        return m_overflowed.get();
+    }
+
+    /**
+     * Get the number of events which were merged into an identical event which was already queued.
+     *
+     * @return The number of coalesced events.
+     */
+    public long getCoalesced()
+    {
+        return m_coalesced.get();
+    }
+
+    private static final class EventKey
+    {
+        private final String event;
+        private final Object[] arguments;
+
+        private EventKey( String event, Object[] arguments )
+        {
+            this.event = event;
+            this.arguments = arguments;
+        }
+
+        @Override
+        public boolean equals( Object other )
+        {
+            if( this == other ) return true;
+            if( !(other instanceof EventKey) ) return false;
+
+            EventKey key = (EventKey) other;
+            return event.equals( key.event ) && Arrays.deepEquals( arguments, key.arguments );
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return 31 * event.hashCode() + Arrays.deepHashCode( arguments );
+        }
+    }
+}
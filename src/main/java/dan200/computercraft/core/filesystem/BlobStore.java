@@ -0,0 +1,491 @@
+/*
+ * This file is part of ComputerCraft - http://www.computercraft.info
+ * Copyright Daniel Ratcliffe, 2011-2017. Do not distribute without permission.
+ * Send enquiries to dratcliffe@gmail.com
+ */
+
+package dan200.computercraft.core.filesystem;
+
+import com.google.common.io.BaseEncoding;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import dan200.computercraft.ComputerCraft;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.*;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A content-addressed store of file contents, shared by every {@link DeduplicatedFileMount} in a world.
+ *
+ * Each distinct file is stored once, named after the SHA-256 hash of its contents. Mounts then refer to it through a
+ * hard link, so identical files in different computers share a single copy on disk. The link count of each blob acts as
+ * its reference count: blobs which are only linked from the store itself are no longer used, and are removed by
+ * {@link #sweep()}.
+ *
+ * Files are written in place, exactly as they would be in a normal {@link FileMount}. {@link FileMount} gives a file its
+ * own copy before writing to it if it is linked to anywhere else. If its only other link is its blob, the blob is
+ * removed instead. Once the last writer closes the file, its contents are hashed and it is linked to the store on a
+ * background thread.
+ *
+ * Both of these rely on reading a file's link count, so the store can only be used on file systems which expose it.
+ */
+public final class BlobStore
+{
+    private static final Map<File, BlobStore> s_stores = new HashMap<>();
+
+    /**
+     * Runs sweeps, and links files to their store once they have been written.
+     */
+    private static final ExecutorService EXECUTOR = Executors.newSingleThreadExecutor(
+        new ThreadFactoryBuilder()
+            .setDaemon( true )
+            .setPriority( Thread.MIN_PRIORITY )
+            .setNameFormat( "ComputerCraft-Blob-Store" )
+            .build()
+    );
+
+    private final File m_root;
+    private final File m_temp;
+
+    /**
+     * The number of streams open for writing to each file. Files are only linked to the store once nothing is writing
+     * to them. This is guarded by the store's monitor.
+     */
+    private final Map<File, Integer> m_writers = new HashMap<>();
+
+    /**
+     * Files which have been written to and are waiting to be linked to the store. Each write replaces the file's
+     * token, so a link which started before the latest write can tell it is out of date. This is guarded by the
+     * store's monitor.
+     */
+    private final Map<File, Object> m_pending = new HashMap<>();
+
+    /**
+     * The blob each file on disk belongs to, keyed by {@link BasicFileAttributes#fileKey()}. This is filled in as files
+     * are linked and swept, and lets us find a file's blob without hashing it. This is guarded by the store's monitor.
+     */
+    private final Map<Object, File> m_blobs = new HashMap<>();
+
+    private BlobStore( File root )
+    {
+        m_root = root;
+        m_temp = new File( root, "tmp" );
+    }
+
+    /**
+     * Get the blob store in a given directory, starting a sweep of unused blobs if it has not been used before.
+     *
+     * @param root The directory containing the store
+     * @return The blob store, or {@code null} if the directory's file system does not expose link counts, and so
+     * cannot safely share files.
+     */
+    @Nullable
+    public static BlobStore get( File root )
+    {
+        synchronized( s_stores )
+        {
+            // Stores which cannot be used are remembered as null, so we only check (and warn) once.
+            if( s_stores.containsKey( root ) ) return s_stores.get( root );
+
+            BlobStore store = new BlobStore( root );
+
+            // Anything left in the temporary directory is from a write which never finished.
+            File[] files = store.m_temp.listFiles();
+            if( files != null ) for( File file : files ) file.delete();
+
+            if( store.supportsLinkCounts() )
+            {
+                EXECUTOR.execute( store::sweep );
+            }
+            else
+            {
+                ComputerCraft.log.warn( "Cannot deduplicate files in " + root + ", as its file system does not expose link counts." );
+                store = null;
+            }
+
+            s_stores.put( root, store );
+            return store;
+        }
+    }
+
+    private boolean supportsLinkCounts()
+    {
+        try
+        {
+            if( !m_temp.isDirectory() && !m_temp.mkdirs() ) return false;
+
+            File probe = File.createTempFile( "probe", ".tmp", m_temp );
+            try
+            {
+                return getLinkCount( probe ) == 1;
+            }
+            finally
+            {
+                probe.delete();
+            }
+        }
+        catch( IOException e )
+        {
+            return false;
+        }
+    }
+
+    /**
+     * Get the number of hard links to a file.
+     *
+     * @param file The file to check
+     * @return The number of links, or {@code -1} if this is not supported.
+     * @throws IOException If the file could not be read.
+     */
+    static int getLinkCount( File file ) throws IOException
+    {
+        try
+        {
+            Object links = Files.getAttribute( file.toPath(), "unix:nlink" );
+            return links instanceof Integer ? (Integer) links : -1;
+        }
+        catch( UnsupportedOperationException | IllegalArgumentException e )
+        {
+            return -1;
+        }
+    }
+
+    /**
+     * Wrap a stream which writes to a file, so that the file is linked to the store once it is closed.
+     *
+     * @param target The file being written to
+     * @param opener Opens the stream. This is called once the write has been registered with the store.
+     * @return The wrapped stream.
+     * @throws IOException If the file could not be opened.
+     */
+    OutputStream openForWrite( File target, StreamOpener opener ) throws IOException
+    {
+        File file = target.getAbsoluteFile();
+        synchronized( this )
+        {
+            m_writers.merge( file, 1, Integer::sum );
+            m_pending.remove( file );
+
+            try
+            {
+                unlinkBlob( file );
+            }
+            catch( IOException e )
+            {
+                // FileMount will copy the file instead.
+                ComputerCraft.log.warn( "Cannot unlink " + file + " from its blob", e );
+            }
+        }
+
+        try
+        {
+            return new IngestingOutputStream( opener.open(), file );
+        }
+        catch( IOException | RuntimeException e )
+        {
+            // The file may have been waiting to be linked when we started, so queue it again.
+            finishWrite( file, true );
+            throw e;
+        }
+    }
+
+    interface StreamOpener
+    {
+        OutputStream open() throws IOException;
+    }
+
+    /**
+     * If the only other link to a file is its own blob, remove the blob. The file can then be written to in place,
+     * rather than being copied first. This must be called while holding the store's monitor.
+     *
+     * @param file The file which is about to be written to.
+     * @throws IOException If the file or blob could not be read.
+     */
+    private void unlinkBlob( File file ) throws IOException
+    {
+        if( !file.isFile() || getLinkCount( file ) != 2 ) return;
+
+        Object key = getFileKey( file );
+        File blob = key == null ? null : m_blobs.get( key );
+        if( blob != null && blob.exists() && Files.isSameFile( blob.toPath(), file.toPath() ) && blob.delete() )
+        {
+            m_blobs.remove( key );
+        }
+    }
+
+    /**
+     * Copy a file, by linking to the same blob.
+     *
+     * @param source      The file to copy
+     * @param destination The file to create
+     * @throws IOException If the file could not be copied.
+     */
+    synchronized void copy( File source, File destination ) throws IOException
+    {
+        // Files which are still being written to cannot be shared, so take a real copy.
+        if( m_writers.containsKey( source.getAbsoluteFile() ) )
+        {
+            Files.copy( source.toPath(), destination.toPath() );
+            return;
+        }
+
+        try
+        {
+            Files.createLink( destination.toPath(), source.toPath() );
+        }
+        catch( UnsupportedOperationException | IOException e )
+        {
+            Files.copy( source.toPath(), destination.toPath() );
+        }
+    }
+
+    private synchronized void finishWrite( File file, boolean ingest )
+    {
+        Integer writers = m_writers.get( file );
+        if( writers == null || writers <= 1 )
+        {
+            m_writers.remove( file );
+        }
+        else
+        {
+            // Someone else is still writing, so they will link the file once they are done.
+            m_writers.put( file, writers - 1 );
+            return;
+        }
+
+        if( !ingest ) return;
+
+        Object token = new Object();
+        m_pending.put( file, token );
+        EXECUTOR.execute( () ->
+        {
+            try
+            {
+                ingest( file, token );
+            }
+            catch( IOException e )
+            {
+                // The file was written successfully, it just could not be shared.
+                ComputerCraft.log.warn( "Cannot deduplicate " + file, e );
+            }
+        } );
+    }
+
+    /**
+     * Replace a file with a link to the blob with the same contents, adding it to the store if there is none.
+     *
+     * The file is hashed without holding the store's monitor. If it has been written to or replaced since, the link is
+     * abandoned, and is left to the write which replaced our token.
+     *
+     * @param file  The file to add to the store
+     * @param token The token the file was queued with.
+     * @throws IOException If the file could not be read or linked.
+     */
+    private void ingest( File file, Object token ) throws IOException
+    {
+        Object key;
+        synchronized( this )
+        {
+            if( m_pending.get( file ) != token || !file.isFile() ) return;
+            key = getFileKey( file );
+        }
+
+        File blob = getBlob( hash( file ) );
+
+        synchronized( this )
+        {
+            if( !m_pending.remove( file, token ) ) return;
+            if( key == null || !file.isFile() || !key.equals( getFileKey( file ) ) ) return;
+            link( file, blob );
+        }
+    }
+
+    /**
+     * Link a file to its blob. This must be called while holding the store's monitor, with nothing writing to the file.
+     *
+     * @param file The file to link
+     * @param blob The blob with the same contents as the file
+     * @throws IOException If the file could not be linked.
+     */
+    private void link( File file, File blob ) throws IOException
+    {
+        if( blob.exists() )
+        {
+            if( Files.isSameFile( blob.toPath(), file.toPath() ) ) return;
+
+            // Link the blob next to the store, and then atomically swap it into place.
+            if( !m_temp.isDirectory() && !m_temp.mkdirs() ) throw new IOException( "Access denied" );
+            File link = File.createTempFile( "link", ".tmp", m_temp );
+            link.delete();
+            try
+            {
+                Files.createLink( link.toPath(), blob.toPath() );
+            }
+            catch( UnsupportedOperationException e )
+            {
+                return;
+            }
+
+            try
+            {
+                Files.move( link.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+            }
+            catch( AtomicMoveNotSupportedException e )
+            {
+                Files.move( link.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING );
+            }
+            rememberBlob( blob );
+        }
+        else if( getLinkCount( file ) == 1 )
+        {
+            File parent = blob.getParentFile();
+            if( !parent.isDirectory() && !parent.mkdirs() ) throw new IOException( "Access denied" );
+            try
+            {
+                Files.createLink( blob.toPath(), file.toPath() );
+                rememberBlob( blob );
+            }
+            catch( UnsupportedOperationException e )
+            {
+                // Leave the file as it is: it just won't be shared.
+            }
+        }
+    }
+
+    /**
+     * Remove all blobs which are no longer linked to by any mount.
+     */
+    void sweep()
+    {
+        File[] buckets = m_root.listFiles();
+        if( buckets == null ) return;
+
+        int removed = 0;
+        for( File bucket : buckets )
+        {
+            if( bucket.equals( m_temp ) ) continue;
+
+            File[] blobs = bucket.listFiles();
+            if( blobs == null ) continue;
+            for( File blob : blobs )
+            {
+                try
+                {
+                    synchronized( this )
+                    {
+                        int links = getLinkCount( blob );
+                        if( links == 1 )
+                        {
+                            if( blob.delete() ) removed++;
+                        }
+                        else
+                        {
+                            rememberBlob( blob );
+                        }
+                    }
+                }
+                catch( IOException e )
+                {
+                    ComputerCraft.log.warn( "Cannot check references to " + blob, e );
+                }
+            }
+        }
+
+        if( removed > 0 ) ComputerCraft.log.info( "Removed " + removed + " unused files from " + m_root );
+    }
+
+    private void rememberBlob( File blob ) throws IOException
+    {
+        Object key = getFileKey( blob );
+        if( key != null ) m_blobs.put( key, blob );
+    }
+
+    private static Object getFileKey( File file ) throws IOException
+    {
+        return Files.readAttributes( file.toPath(), BasicFileAttributes.class ).fileKey();
+    }
+
+    private File getBlob( String hash )
+    {
+        return new File( new File( m_root, hash.substring( 0, 2 ) ), hash );
+    }
+
+    private static String hash( File file ) throws IOException
+    {
+        MessageDigest digest;
+        try
+        {
+            digest = MessageDigest.getInstance( "SHA-256" );
+        }
+        catch( NoSuchAlgorithmException e )
+        {
+            throw new IOException( "Cannot hash files", e );
+        }
+
+        try( InputStream stream = new FileInputStream( file ) )
+        {
+            byte[] buffer = new byte[ 8192 ];
+            int read;
+            while( (read = stream.read( buffer )) >= 0 ) digest.update( buffer, 0, read );
+        }
+
+        return BaseEncoding.base16().lowerCase().encode( digest.digest() );
+    }
+
+    private class IngestingOutputStream extends OutputStream
+    {
+        private final OutputStream m_stream;
+        private final File m_file;
+        private boolean m_closed;
+
+        IngestingOutputStream( OutputStream stream, File file )
+        {
+            m_stream = stream;
+            m_file = file;
+        }
+
+        @Override
+        public void write( int b ) throws IOException
+        {
+            m_stream.write( b );
+        }
+
+        @Override
+        public void write( @Nonnull byte[] b, int off, int len ) throws IOException
+        {
+            m_stream.write( b, off, len );
+        }
+
+        @Override
+        public void flush() throws IOException
+        {
+            m_stream.flush();
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            if( m_closed ) return;
+            m_closed = true;
+
+            boolean closed = false;
+            try
+            {
+                m_stream.close();
+                closed = true;
+            }
+            finally
+            {
+                finishWrite( m_file, closed );
+            }
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * This file is part of ComputerCraft - http://www.computercraft.info
+ * Copyright Daniel Ratcliffe, 2011-2017. Do not distribute without permission.
+ * Send enquiries to dratcliffe@gmail.com
+ */
+
+package dan200.computercraft.core.filesystem;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+
+/**
+ * A read-only {@link SeekableByteChannel} over the contents of a {@link ByteBuffer}.
+ *
+ * This is used to provide seekable access to files which are not backed by a file on disk, such as those inside a jar.
+ */
+class ByteBufferChannel implements SeekableByteChannel
+{
+    private final ByteBuffer m_buffer;
+    private boolean m_open = true;
+
+    /**
+     * Create a new channel. The buffer's position and limit are used as the start and end of the channel, and changes
+     * to them after this point will not be visible.
+     *
+     * @param buffer The buffer to read from.
+     */
+    ByteBufferChannel( ByteBuffer buffer )
+    {
+        m_buffer = buffer.slice();
+    }
+
+    @Override
+    public int read( ByteBuffer destination ) throws IOException
+    {
+        checkOpen();
+        if( !m_buffer.hasRemaining() ) return -1;
+
+        int count = Math.min( destination.remaining(), m_buffer.remaining() );
+        ByteBuffer source = m_buffer.duplicate();
+        source.limit( source.position() + count );
+        destination.put( source );
+        m_buffer.position( m_buffer.position() + count );
+        return count;
+    }
+
+    @Override
+    public int write( ByteBuffer source ) throws IOException
+    {
+        checkOpen();
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public long position() throws IOException
+    {
+        checkOpen();
+        return m_buffer.position();
+    }
+
+    @Override
+    public SeekableByteChannel position( long position ) throws IOException
+    {
+        checkOpen();
+        if( position < 0 ) throw new IllegalArgumentException( "Position is negative" );
+
+        // Seeking past the end is allowed, and just means there is nothing left to read.
+        m_buffer.position( (int) Math.min( position, m_buffer.limit() ) );
+        return this;
+    }
+
+    @Override
+    public long size() throws IOException
+    {
+        checkOpen();
+        return m_buffer.limit();
+    }
+
+    @Override
+    public SeekableByteChannel truncate( long size ) throws IOException
+    {
+        checkOpen();
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public boolean isOpen()
+    {
+        return m_open;
+    }
+
+    @Override
+    public void close()
+    {
+        m_open = false;
+    }
+
+    private void checkOpen() throws ClosedChannelException
+    {
+        if( !m_open ) throw new ClosedChannelException();
+    }
+}
@@ -11,6 +11,7 @@ import dan200.computercraft.api.filesystem.IMount;
 import javax.annotation.Nonnull;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.channels.ReadableByteChannel;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
@@ -126,4 +127,19 @@ public class ComboMount implements IMount
         }
         throw new IOException( "/" + path + ": No such file" );
     }
+
+    @Nonnull
+    @Override
+    public ReadableByteChannel openChannelForRead( @Nonnull String path ) throws IOException
+    {
+        for( int i=m_parts.length-1; i>=0; --i )
+        {
+            IMount part = m_parts[i];
+            if( part.exists( path ) && !part.isDirectory( path ) )
+            {
+                return part.openChannelForRead( path );
+            }
+        }
+        throw new IOException( "/" + path + ": No such file" );
+    }
 }
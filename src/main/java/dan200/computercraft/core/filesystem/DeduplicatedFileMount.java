@@ -0,0 +1,42 @@
+/*
+ * This file is part of ComputerCraft - http://www.computercraft.info
+ * Copyright Daniel Ratcliffe, 2011-2017. Do not distribute without permission.
+ * Send enquiries to dratcliffe@gmail.com
+ */
+
+package dan200.computercraft.core.filesystem;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * A {@link FileMount} which stores file contents in a shared {@link BlobStore}, so identical files in different
+ * computers only take up space on disk once.
+ *
+ * Files are written in place, and so behave exactly as they would in a normal {@link FileMount}. Once a file is closed,
+ * it is replaced with a hard link into the store. The mount's directory can therefore be read like any other save
+ * directory. Each computer is still charged for the full size of its files.
+ */
+public class DeduplicatedFileMount extends FileMount
+{
+    private final BlobStore m_store;
+
+    public DeduplicatedFileMount( File rootPath, long capacity, BlobStore store )
+    {
+        super( rootPath, capacity, true );
+        m_store = store;
+    }
+
+    @Override
+    protected OutputStream openFileStream( File file, boolean append ) throws IOException
+    {
+        return m_store.openForWrite( file, () -> super.openFileStream( file, append ) );
+    }
+
+    @Override
+    protected void copyFileContents( File source, File destination ) throws IOException
+    {
+        m_store.copy( source, destination );
+    }
+}
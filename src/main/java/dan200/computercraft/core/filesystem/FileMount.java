@@ -6,31 +6,62 @@
 
 package dan200.computercraft.core.filesystem;
 
+import dan200.computercraft.ComputerCraft;
 import dan200.computercraft.api.filesystem.IWritableMount;
 
 import javax.annotation.Nonnull;
 import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.List;
 
 public class FileMount implements IWritableMount
 {
     private static int MINIMUM_FILE_SIZE = 500;
+
+    /**
+     * The suffix of the ledger files which store each mount's used space.
+     *
+     * @see #FileMount(File, long, boolean)
+     */
+    public static final String USAGE_SUFFIX = UsageLedger.SUFFIX;
     
     private class CountingOutputStream extends OutputStream
     {
         private OutputStream m_innerStream;
         private long m_ignoredBytesLeft;
+        private boolean m_closed;
         
         public CountingOutputStream( OutputStream innerStream, long bytesToIgnore )
         {
             m_innerStream = innerStream;
             m_ignoredBytesLeft = bytesToIgnore;
+            synchronized( FileMount.this )
+            {
+                m_openWriters++;
+            }
         }
         
         @Override
         public void close() throws IOException
         {
-            m_innerStream.close();
+            try
+            {
+                m_innerStream.close();
+            }
+            finally
+            {
+                synchronized( FileMount.this )
+                {
+                    if( !m_closed ) m_openWriters--;
+                    m_closed = true;
+                }
+            }
         }
         
         @Override
@@ -68,28 +99,78 @@ public class FileMount implements IWritableMount
                 long newBytes = -m_ignoredBytesLeft;
                 m_ignoredBytesLeft = 0;
                 
-                long bytesLeft = m_capacity - m_usedSpace;
-                if( newBytes > bytesLeft )
+                if( !reserveSpace( newBytes ) )
                 {
                     throw new IOException( "Out of space" );
                 }
-                else
-                {
-                    m_usedSpace += newBytes;
-                }
             }
         }
     }
     
     private File m_rootPath;
     private long m_capacity;
+    private final UsageLedger m_ledger;
+
+    /**
+     * The space used by this mount. This is guarded by the mount's monitor, along with {@link #m_generation}.
+     */
     private long m_usedSpace;
+
+    /**
+     * Incremented every time {@link #m_usedSpace} changes, so that {@link #reconcile()} can tell if the mount was written
+     * to while it was measuring.
+     */
+    private long m_generation;
+
+    /**
+     * The number of files currently open for writing. Their contents may still be buffered, so we cannot reconcile
+     * while any are open.
+     */
+    private int m_openWriters;
     
     public FileMount( File rootPath, long capacity )
+    {
+        this( rootPath, capacity, false );
+    }
+
+    /**
+     * Create a new file mount.
+     *
+     * @param rootPath     The directory this mount exposes
+     * @param capacity     The maximum number of bytes this mount may use
+     * @param persistUsage Whether to store this mount's used space in a ledger next to its directory, rather than
+     *                     measuring the whole directory every time the mount is created.
+     */
+    public FileMount( File rootPath, long capacity, boolean persistUsage )
     {
         m_rootPath = rootPath;
         m_capacity = capacity + MINIMUM_FILE_SIZE;
-        m_usedSpace = created() ? measureUsedSpace( m_rootPath ) : MINIMUM_FILE_SIZE;
+        m_ledger = persistUsage ? new UsageLedger( rootPath, this::getUsedSpace ) : null;
+
+        if( !created() )
+        {
+            m_usedSpace = MINIMUM_FILE_SIZE;
+        }
+        else if( m_ledger == null )
+        {
+            m_usedSpace = measureUsedSpace( m_rootPath );
+        }
+        else
+        {
+            long usedSpace = m_ledger.load();
+            if( usedSpace >= 0 )
+            {
+                // The ledger may have missed changes made outside of ComputerCraft, so check it in the background
+                // every so often.
+                m_usedSpace = usedSpace;
+                if( m_ledger.needsReconcile() ) UsageLedger.reconcile( this::reconcile );
+            }
+            else
+            {
+                m_usedSpace = measureUsedSpace( m_rootPath );
+                m_ledger.markVerified();
+            }
+        }
     }
 
     // IMount implementation
@@ -174,6 +255,7 @@ public class FileMount implements IWritableMount
                 }
                 else
                 {
+                    WriteBehindOutputStream.flush( file );
                     return file.length();
                 }
             }
@@ -190,11 +272,28 @@ public class FileMount implements IWritableMount
             File file = getRealPath( path );
             if( file.exists() && !file.isDirectory() )
             {
+                WriteBehindOutputStream.flush( file );
                 return new FileInputStream( file );
             }
         }
         throw new IOException( "/" + path +  ": No such file" );
     }
+
+    @Nonnull
+    @Override
+    public ReadableByteChannel openChannelForRead( @Nonnull String path ) throws IOException
+    {
+        if( created() )
+        {
+            File file = getRealPath( path );
+            if( file.exists() && !file.isDirectory() )
+            {
+                WriteBehindOutputStream.flush( file );
+                return FileChannel.open( file.toPath(), StandardOpenOption.READ );
+            }
+        }
+        throw new IOException( "/" + path +  ": No such file" );
+    }
     
     // IWritableMount implementation
     
@@ -228,7 +327,7 @@ public class FileMount implements IWritableMount
             boolean success = file.mkdirs();
             if( success )
             {
-                m_usedSpace += dirsToCreate * MINIMUM_FILE_SIZE;
+                adjustUsedSpace( dirsToCreate * MINIMUM_FILE_SIZE );
             }
             else
             {
@@ -268,11 +367,12 @@ public class FileMount implements IWritableMount
         }
         
         // Then delete
+        if( !file.isDirectory() ) WriteBehindOutputStream.flush( file );
         long fileSize = file.isDirectory() ? 0 : file.length();
         boolean success = file.delete();
         if( success )
         {
-            m_usedSpace -= Math.max( MINIMUM_FILE_SIZE, fileSize );
+            adjustUsedSpace( -Math.max( MINIMUM_FILE_SIZE, fileSize ) );
         }
         else
         {
@@ -300,15 +400,15 @@ public class FileMount implements IWritableMount
                 }
                 else
                 {
-                    m_usedSpace += MINIMUM_FILE_SIZE;
+                    adjustUsedSpace( MINIMUM_FILE_SIZE );
                 }
             }
             else
             {
-                m_usedSpace -= Math.max( file.length(), MINIMUM_FILE_SIZE );
-                m_usedSpace += MINIMUM_FILE_SIZE;
+                WriteBehindOutputStream.flush( file );
+                adjustUsedSpace( MINIMUM_FILE_SIZE - Math.max( file.length(), MINIMUM_FILE_SIZE ) );
             }
-            return new CountingOutputStream( new FileOutputStream( file, false ), MINIMUM_FILE_SIZE );
+            return new CountingOutputStream( openFileStream( file, false ), MINIMUM_FILE_SIZE );
         }
     }
     
@@ -329,7 +429,8 @@ public class FileMount implements IWritableMount
             }
             else
             {
-                return new CountingOutputStream( new FileOutputStream( file, true ), Math.max( MINIMUM_FILE_SIZE - file.length(), 0 ) );
+                WriteBehindOutputStream.flush( file );
+                return new CountingOutputStream( openFileStream( file, true ), Math.max( MINIMUM_FILE_SIZE - file.length(), 0 ) );
             }
         }
         else
@@ -338,12 +439,198 @@ public class FileMount implements IWritableMount
         }
     }
     
+    /**
+     * Copy a single file within this mount, leaving the copying to the operating system where possible.
+     *
+     * @param sourcePath The file to copy.
+     * @param destPath   The path to copy it to. This must not exist.
+     * @throws IOException If the file could not be copied, or there is not enough space.
+     */
+    void copyFile( @Nonnull String sourcePath, @Nonnull String destPath ) throws IOException
+    {
+        File source = getRealPath( sourcePath );
+        File destination = getRealPath( destPath );
+        if( !source.exists() || source.isDirectory() ) throw new IOException( "/" + sourcePath + ": No such file" );
+        if( destination.exists() ) throw new IOException( "/" + destPath + ": File exists" );
+
+        createParent( destPath );
+
+        WriteBehindOutputStream.flush( source );
+        long size = Math.max( source.length(), MINIMUM_FILE_SIZE );
+        if( !reserveSpace( size ) ) throw new IOException( "/" + destPath + ": Out of space" );
+
+        try
+        {
+            copyFileContents( source, destination );
+        }
+        catch( IOException e )
+        {
+            adjustUsedSpace( -size );
+            throw new IOException( "/" + destPath + ": Access denied", e );
+        }
+    }
+
+    /**
+     * Move a file or directory within this mount, using an atomic rename where possible.
+     *
+     * @param sourcePath The file to move.
+     * @param destPath   The path to move it to. This must not exist.
+     * @throws IOException If the file could not be moved.
+     */
+    void move( @Nonnull String sourcePath, @Nonnull String destPath ) throws IOException
+    {
+        File source = getRealPath( sourcePath );
+        File destination = getRealPath( destPath );
+        if( sourcePath.isEmpty() ) throw new IOException( "/" + sourcePath + ": Access denied" );
+        if( !source.exists() ) throw new IOException( "/" + sourcePath + ": No such file" );
+        if( destination.exists() ) throw new IOException( "/" + destPath + ": File exists" );
+
+        createParent( destPath );
+
+        // The move may fall back to copying, so make sure anything still being written is copied too.
+        WriteBehindOutputStream.flush( source );
+        try
+        {
+            try
+            {
+                Files.move( source.toPath(), destination.toPath(), StandardCopyOption.ATOMIC_MOVE );
+            }
+            catch( AtomicMoveNotSupportedException e )
+            {
+                Files.move( source.toPath(), destination.toPath() );
+            }
+        }
+        catch( IOException e )
+        {
+            throw new IOException( "/" + sourcePath + ": Access denied", e );
+        }
+
+        // Moving a file does not change the space it uses, but the source directory will have a new modification time.
+        synchronized( this )
+        {
+            m_generation++;
+            if( m_ledger != null ) m_ledger.markDirty();
+        }
+    }
+
+    private void createParent( String path ) throws IOException
+    {
+        String parent = FileSystem.getDirectory( path );
+        if( parent.isEmpty() )
+        {
+            create();
+        }
+        else
+        {
+            makeDirectory( parent );
+        }
+    }
+
     @Override
-    public long getRemainingSpace()
+    public synchronized long getRemainingSpace()
     {
         return Math.max( m_capacity - m_usedSpace, 0 );
     }
+
+    private synchronized long getUsedSpace()
+    {
+        return m_usedSpace;
+    }
+
+    private synchronized boolean reserveSpace( long bytes )
+    {
+        if( bytes > m_capacity - m_usedSpace ) return false;
+        adjustUsedSpace( bytes );
+        return true;
+    }
+
+    private synchronized void adjustUsedSpace( long bytes )
+    {
+        m_usedSpace += bytes;
+        m_generation++;
+        if( m_ledger != null ) m_ledger.markDirty();
+    }
+
+    /**
+     * Measure the space used on disk, and correct the recorded usage if it has drifted.
+     */
+    private void reconcile()
+    {
+        long generation;
+        synchronized( this )
+        {
+            generation = m_generation;
+        }
+
+        long usedSpace = created() ? measureUsedSpace( m_rootPath ) : MINIMUM_FILE_SIZE;
+        synchronized( this )
+        {
+            if( generation != m_generation || m_openWriters > 0 )
+            {
+                // We were written to while measuring, so our result may be wrong. Try again later.
+                UsageLedger.reconcile( this::reconcile );
+            }
+            else
+            {
+                m_usedSpace = usedSpace;
+                m_ledger.markVerified();
+            }
+        }
+    }
     
+    /**
+     * Open a stream which writes to a file on disk. Space used by the written data is accounted for by the caller.
+     *
+     * @param file   The file to write to
+     * @param append Whether to append to the file's existing contents
+     * @return The stream to write to.
+     * @throws IOException If the file could not be opened.
+     */
+    protected OutputStream openFileStream( File file, boolean append ) throws IOException
+    {
+        // Files may be hard links shared with other computers (see DeduplicatedFileMount). Writing to one in place
+        // would change every copy, so give this file its own copy first.
+        if( isShared( file ) )
+        {
+            if( append )
+            {
+                Path copy = Files.createTempFile( file.getParentFile().toPath(), ".", ".tmp" );
+                Files.copy( file.toPath(), copy, StandardCopyOption.REPLACE_EXISTING );
+                Files.move( copy, file.toPath(), StandardCopyOption.REPLACE_EXISTING );
+            }
+            else
+            {
+                Files.delete( file.toPath() );
+            }
+        }
+
+        return buffer( new FileOutputStream( file, append ), file );
+    }
+
+    private static boolean isShared( File file ) throws IOException
+    {
+        // BlobStore refuses to share files on file systems which do not expose link counts, so files there are never
+        // shared.
+        return file.exists() && BlobStore.getLinkCount( file ) > 1;
+    }
+
+    /**
+     * Copy the contents of one file to another, which does not yet exist.
+     *
+     * @param source      The file to copy from
+     * @param destination The file to copy to
+     * @throws IOException If the file could not be copied.
+     */
+    protected void copyFileContents( File source, File destination ) throws IOException
+    {
+        Files.copy( source.toPath(), destination.toPath() );
+    }
+
+    static OutputStream buffer( FileOutputStream stream, File file )
+    {
+        return ComputerCraft.fileFlushInterval > 0 ? new WriteBehindOutputStream( stream, file ) : stream;
+    }
+
     public File getRealPath( String path )
     {
         return new File( m_rootPath, path );
@@ -376,9 +663,12 @@ public class FileMount implements IWritableMount
         {
             long size = MINIMUM_FILE_SIZE;
             String[] contents = file.list();
-            for( String content : contents )
+            if( contents != null )
             {
-                size += measureUsedSpace( new File( file, content ) );
+                for( String content : contents )
+                {
+                    size += measureUsedSpace( new File( file, content ) );
+                }
             }
             return size;
         }
@@ -6,14 +6,22 @@
 
 package dan200.computercraft.core.filesystem;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import dan200.computercraft.ComputerCraft;
 import dan200.computercraft.api.filesystem.IFileSystem;
 import dan200.computercraft.api.filesystem.IMount;
 import dan200.computercraft.api.filesystem.IWritableMount;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
 import java.util.*;
-import java.util.regex.Pattern;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class FileSystem
 {    
@@ -24,6 +32,11 @@ public class FileSystem
         
         private IMount m_mount;
         private IWritableMount m_writableMount;
+
+        /**
+         * Recent directory listings of this mount, shared with every other file system which mounts the same files.
+         */
+        private final Listings m_listings;
         
         public MountWrapper( String label, String location, IMount mount )
         {
@@ -31,6 +44,7 @@ public class FileSystem
             m_location = location;
             m_mount = mount;
             m_writableMount = null;
+            m_listings = Listings.get( mount );
         }
 
         public MountWrapper( String label, String location, IWritableMount mount )
@@ -102,21 +116,30 @@ public class FileSystem
         public void list( String path, List<String> contents ) throws FileSystemException
         {
             path = toLocal( path );
-            try
+            String[] listing = m_listings.get( path );
+            if( listing == null )
             {
-                if( m_mount.exists( path ) && m_mount.isDirectory( path ) )
+                int version = m_listings.getVersion();
+                try
                 {
-                    m_mount.list( path, contents );
+                    if( m_mount.exists( path ) && m_mount.isDirectory( path ) )
+                    {
+                        List<String> children = new ArrayList<>();
+                        m_mount.list( path, children );
+                        listing = children.toArray( new String[ children.size() ] );
+                    }
+                    else
+                    {
+                        throw new FileSystemException( "/" + path + ": Not a directory" );
+                    }
                 }
-                else
+                catch( IOException e )
                 {
-                    throw new FileSystemException( "/" + path + ": Not a directory" );
+                    throw new FileSystemException( e.getMessage() );
                 }
+                m_listings.put( path, listing, version );
             }
-            catch( IOException e )
-            {
-                throw new FileSystemException( e.getMessage() );
-            }
+            Collections.addAll( contents, listing );
         }
         
         public long getSize( String path ) throws FileSystemException
@@ -165,6 +188,26 @@ public class FileSystem
                 throw new FileSystemException( e.getMessage() );
             }
         }
+
+        public ReadableByteChannel openChannelForRead( String path ) throws FileSystemException
+        {
+            path = toLocal( path );
+            try
+            {
+                if( m_mount.exists( path ) && !m_mount.isDirectory( path ) )
+                {
+                    return m_mount.openChannelForRead( path );
+                }
+                else
+                {
+                    throw new FileSystemException( "/" + path + ": No such file" );
+                }
+            }
+            catch( IOException e )
+            {
+                throw new FileSystemException( e.getMessage() );
+            }
+        }
         
         // IWritableMount forwarders:
                 
@@ -193,6 +236,10 @@ public class FileSystem
             {
                 throw new FileSystemException( e.getMessage() );
             }
+            finally
+            {
+                m_listings.invalidate();
+            }
         }
                 
         public void delete( String path ) throws FileSystemException
@@ -213,6 +260,10 @@ public class FileSystem
             {
                 throw new FileSystemException( e.getMessage() );
             }
+            finally
+            {
+                m_listings.invalidate();
+            }
         }
     
         public OutputStream openForWrite( String path ) throws FileSystemException
@@ -245,6 +296,10 @@ public class FileSystem
             {
                 throw new FileSystemException( e.getMessage() );
             }
+            finally
+            {
+                m_listings.invalidate();
+            }
         }
         
         public OutputStream openForAppend( String path ) throws FileSystemException
@@ -280,9 +335,67 @@ public class FileSystem
             catch( IOException e )
             {
                 throw new FileSystemException( e.getMessage() );
-            }        
+            }
+            finally
+            {
+                m_listings.invalidate();
+            }
         }
     
+        /**
+         * Copy a single file within this mount, if the mount is able to do so itself.
+         *
+         * @param sourcePath The file to copy
+         * @param destPath   The path to copy it to
+         * @return Whether the file was copied. If {@code false}, the caller should copy it manually.
+         * @throws FileSystemException If the file could not be copied.
+         */
+        public boolean copyFileDirect( String sourcePath, String destPath ) throws FileSystemException
+        {
+            if( !(m_writableMount instanceof FileMount) ) return false;
+
+            try
+            {
+                ((FileMount) m_writableMount).copyFile( toLocal( sourcePath ), toLocal( destPath ) );
+                return true;
+            }
+            catch( IOException e )
+            {
+                throw new FileSystemException( e.getMessage() );
+            }
+            finally
+            {
+                m_listings.invalidate();
+            }
+        }
+
+        /**
+         * Move a file or directory within this mount, if the mount is able to do so itself.
+         *
+         * @param sourcePath The file to move
+         * @param destPath   The path to move it to
+         * @return Whether the file was moved. If {@code false}, the caller should copy and delete it instead.
+         * @throws FileSystemException If the file could not be moved.
+         */
+        public boolean moveDirect( String sourcePath, String destPath ) throws FileSystemException
+        {
+            if( !(m_writableMount instanceof FileMount) ) return false;
+
+            try
+            {
+                ((FileMount) m_writableMount).move( toLocal( sourcePath ), toLocal( destPath ) );
+                return true;
+            }
+            catch( IOException e )
+            {
+                throw new FileSystemException( e.getMessage() );
+            }
+            finally
+            {
+                m_listings.invalidate();
+            }
+        }
+
         // private members
         
         private String toLocal( String path )
@@ -291,8 +404,120 @@ public class FileSystem
         }
     }
 
+    /**
+     * The size of {@link #s_pathCache}. This must be a power of two.
+     */
+    private static final int PATH_CACHE_SIZE = 512;
+
+    /**
+     * The longest path which will be stored in {@link #s_pathCache}, so computers cannot pin large strings in memory.
+     */
+    private static final int MAX_CACHED_PATH_LENGTH = 256;
+
+    /**
+     * The maximum number of directory listings cached for each mount.
+     */
+    private static final int LISTING_CACHE_SIZE = 256;
+
+    /**
+     * How long a directory listing may be cached for, in milliseconds.
+     */
+    private static final long LISTING_CACHE_EXPIRY = 2000;
+
+    /**
+     * Recent directory listings of a mount, keyed by their local path.
+     *
+     * These are shared between every file system which mounts the same files (such as computers sharing a disk drive),
+     * and are cleared whenever one of them writes to the mount. Entries also expire after a short while, so changes
+     * made outside any file system are eventually picked up.
+     */
+    private static final class Listings
+    {
+        /**
+         * The listings for each mount. {@link FileMount}s are keyed by their directory, as each computer creates its
+         * own mount for the same files. Other mounts are keyed by the mount itself.
+         */
+        private static final Cache<Object, Listings> s_listings = CacheBuilder.newBuilder()
+            .weakValues()
+            .build();
+
+        private final Cache<String, String[]> m_cache = CacheBuilder.newBuilder()
+            .maximumSize( LISTING_CACHE_SIZE )
+            .expireAfterWrite( LISTING_CACHE_EXPIRY, TimeUnit.MILLISECONDS )
+            .build();
+
+        /**
+         * Incremented whenever the mount is modified, so listings read before the change are not put in the cache.
+         */
+        private final AtomicInteger m_version = new AtomicInteger();
+
+        static Listings get( IMount mount )
+        {
+            Object key = mount instanceof FileMount ? ((FileMount) mount).getRealPath( "" ).getAbsoluteFile() : mount;
+            try
+            {
+                return s_listings.get( key, Listings::new );
+            }
+            catch( ExecutionException e )
+            {
+                throw new IllegalStateException( e.getCause() );
+            }
+        }
+
+        String[] get( String path )
+        {
+            return m_cache.getIfPresent( path );
+        }
+
+        int getVersion()
+        {
+            return m_version.get();
+        }
+
+        /**
+         * Cache a listing, unless the mount has been modified since we started reading it.
+         *
+         * @param path    The directory which was listed
+         * @param listing Its contents
+         * @param version The result of {@link #getVersion()} before the directory was listed
+         */
+        void put( String path, String[] listing, int version )
+        {
+            if( m_version.get() != version ) return;
+            m_cache.put( path, listing );
+
+            // The mount may have been modified (and the cache cleared) just before we added this listing.
+            if( m_version.get() != version ) m_cache.invalidate( path );
+        }
+
+        /**
+         * Discard every listing. This should be called after the mount has been modified.
+         */
+        void invalidate()
+        {
+            m_version.incrementAndGet();
+            m_cache.invalidateAll();
+        }
+    }
+
+    /**
+     * The size of the buffer used when copying files between mounts.
+     */
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * A small direct-mapped cache of recently sanitised paths, shared between all file systems. Entries are immutable,
+     * so races between threads only cause the occasional unnecessary cache miss.
+     */
+    private static final SanitisedPath[] s_pathCache = new SanitisedPath[ PATH_CACHE_SIZE ];
+
     private final FileSystemMount m_wrapper = new FileSystemMount( this );
-    private final Map<String, MountWrapper> m_mounts = new HashMap<>();
+
+    /**
+     * All mounts, ordered from the deepest location to the shallowest. This array is never modified: instead it is
+     * replaced when mounting or unmounting, so it can be read without holding a lock.
+     */
+    private volatile MountWrapper[] m_mounts = new MountWrapper[ 0 ];
     private final Set<Closeable> m_openFiles = Collections.newSetFromMap( new WeakHashMap<Closeable, Boolean>() );
     
     public FileSystem( String rootLabel, IMount rootMount ) throws FileSystemException
@@ -352,23 +577,30 @@ public class FileSystem
     private synchronized void mount( MountWrapper wrapper )
     {
         String location = wrapper.getLocation();
-        if( m_mounts.containsKey( location ) )
+        List<MountWrapper> mounts = new ArrayList<>( m_mounts.length + 1 );
+        for( MountWrapper mount : m_mounts )
         {
-            m_mounts.remove( location );
+            if( !mount.getLocation().equals( location ) ) mounts.add( mount );
         }
-        m_mounts.put( location, wrapper );
+        mounts.add( wrapper );
+
+        // Sort deepest first, so the first mount containing a path is the one it belongs to.
+        mounts.sort( ( a, b ) -> Integer.compare( b.getLocation().length(), a.getLocation().length() ) );
+        m_mounts = mounts.toArray( new MountWrapper[ mounts.size() ] );
     }
         
     public synchronized void unmount( String path )
     {
         path = sanitizePath( path );
-        if( m_mounts.containsKey( path ) )
+        List<MountWrapper> mounts = new ArrayList<>( m_mounts.length );
+        for( MountWrapper mount : m_mounts )
         {
-            m_mounts.remove( path );
+            if( !mount.getLocation().equals( path ) ) mounts.add( mount );
         }
+        m_mounts = mounts.toArray( new MountWrapper[ mounts.size() ] );
     }
         
-    public synchronized String combine( String path, String childPath )
+    public String combine( String path, String childPath )
     {
         path = sanitizePath( path, true );
         childPath = sanitizePath( childPath, true );
@@ -412,14 +644,14 @@ public class FileSystem
         }
     }
     
-    public synchronized long getSize( String path ) throws FileSystemException
+    public long getSize( String path ) throws FileSystemException
     {
         path = sanitizePath( path );
         MountWrapper mount = getMount( path );
         return mount.getSize( path );
     }
     
-    public synchronized String[] list( String path ) throws FileSystemException
+    public String[] list( String path ) throws FileSystemException
     {    
         path = sanitizePath( path );
         MountWrapper mount = getMount( path );
@@ -429,7 +661,7 @@ public class FileSystem
         mount.list( path, list );
         
         // Add any mounts that are mounted at this location
-        for( MountWrapper otherMount : m_mounts.values() )
+        for( MountWrapper otherMount : m_mounts )
         {
             if( getDirectory( otherMount.getLocation() ).equals( path ) )
             {
@@ -444,24 +676,80 @@ public class FileSystem
         return array;
     }
 
-    private void findIn( String dir, List<String> matches, Pattern wildPattern ) throws FileSystemException
+    private void findIn( String dir, String[] segments, int index, List<String> matches ) throws FileSystemException
     {
+        String segment = segments[ index ];
+        boolean last = index == segments.length - 1;
+
+        // Only descend into entries which match this segment of the pattern, rather than walking the whole tree.
         String[] list = list( dir );
-        for( String entry : list )
+        if( segment.indexOf( '*' ) == -1 )
         {
-            String entryPath = dir.isEmpty() ? entry : (dir + "/" + entry);
-            if( wildPattern.matcher( entryPath ).matches() )
+            if( Arrays.binarySearch( list, segment ) >= 0 ) findEntry( dir, segment, segments, index, last, matches );
+        }
+        else
+        {
+            for( String entry : list )
             {
-                matches.add( entryPath );
+                if( matchesGlob( segment, entry ) ) findEntry( dir, entry, segments, index, last, matches );
             }
-            if( isDir( entryPath ) )
+        }
+    }
+
+    private void findEntry( String dir, String entry, String[] segments, int index, boolean last, List<String> matches ) throws FileSystemException
+    {
+        String entryPath = dir.isEmpty() ? entry : (dir + "/" + entry);
+        if( last )
+        {
+            matches.add( entryPath );
+        }
+        else if( isDir( entryPath ) )
+        {
+            findIn( entryPath, segments, index + 1, matches );
+        }
+    }
+
+    /**
+     * Match a single path component against a glob, where {@code *} matches any sequence of characters.
+     *
+     * @param glob The pattern to match against
+     * @param name The name of the file
+     * @return Whether this name matches the pattern.
+     */
+    private static boolean matchesGlob( String glob, String name )
+    {
+        int globIndex = 0, nameIndex = 0;
+        int starIndex = -1, starMatch = 0;
+        while( nameIndex < name.length() )
+        {
+            if( globIndex < glob.length() && glob.charAt( globIndex ) == '*' )
             {
-                findIn( entryPath, matches, wildPattern );
+                // Remember this star, initially matching nothing.
+                starIndex = globIndex++;
+                starMatch = nameIndex;
+            }
+            else if( globIndex < glob.length() && glob.charAt( globIndex ) == name.charAt( nameIndex ) )
+            {
+                globIndex++;
+                nameIndex++;
+            }
+            else if( starIndex >= 0 )
+            {
+                // Backtrack, letting the last star consume one more character.
+                globIndex = starIndex + 1;
+                nameIndex = ++starMatch;
+            }
+            else
+            {
+                return false;
             }
         }
+
+        while( globIndex < glob.length() && glob.charAt( globIndex ) == '*' ) globIndex++;
+        return globIndex == glob.length();
     }
 
-    public synchronized String[] find( String wildPath ) throws FileSystemException
+    public String[] find( String wildPath ) throws FileSystemException
     {
         // Match all the files on the system
         wildPath = sanitizePath( wildPath, true );
@@ -480,10 +768,10 @@ public class FileSystem
         // If this isn't a directory then just abort
         if( !isDir( startDir ) ) return new String[0];
 
-        // Scan as normal, starting from this directory
-        Pattern wildPattern = Pattern.compile( "^\\Q" + wildPath.replaceAll( "\\*", "\\\\E[^\\\\/]*\\\\Q" ) + "\\E$" );
+        // Match the remaining path one segment at a time, starting from this directory
+        String[] segments = wildPath.substring( prevDir + 1 ).split( "/" );
         List<String> matches = new ArrayList<>();
-        findIn( startDir, matches, wildPattern );
+        findIn( startDir, segments, 0, matches );
 
         // Return matches
         String[] array = new String[ matches.size() ];
@@ -491,28 +779,28 @@ public class FileSystem
         return array;
     }
 
-    public synchronized boolean exists( String path ) throws FileSystemException
+    public boolean exists( String path ) throws FileSystemException
     {
         path = sanitizePath( path );
         MountWrapper mount = getMount( path );
         return mount.exists( path );
     }
     
-    public synchronized boolean isDir( String path ) throws FileSystemException
+    public boolean isDir( String path ) throws FileSystemException
     {
         path = sanitizePath( path );
         MountWrapper mount = getMount( path );
         return mount.isDirectory( path );
     }
         
-    public synchronized boolean isReadOnly( String path ) throws FileSystemException
+    public boolean isReadOnly( String path ) throws FileSystemException
     {
         path = sanitizePath( path );
         MountWrapper mount = getMount( path );
         return mount.isReadOnly( path );
     }
     
-    public synchronized String getMountLabel( String path ) throws FileSystemException
+    public String getMountLabel( String path ) throws FileSystemException
     {
         path = sanitizePath( path );
         MountWrapper mount = getMount( path );
@@ -549,11 +837,24 @@ public class FileSystem
         if( contains( sourcePath, destPath ) ) {
             throw new FileSystemException( "Can't move a directory inside itself" );
         }
+
+        // Moves within a single mount can be a rename, rather than copying everything.
+        MountWrapper sourceMount = getMount( sourcePath );
+        if( sourceMount == getMount( destPath ) && sourceMount.moveDirect( sourcePath, destPath ) ) return;
+
         copy( sourcePath, destPath );
         delete( sourcePath );
     }
-        
-    public synchronized void copy( String sourcePath, String destPath ) throws FileSystemException
+
+    /**
+     * Copy a file or directory. This does not hold the file system's lock, so a large copy will not block other
+     * operations.
+     *
+     * @param sourcePath The file to copy
+     * @param destPath   The path to copy it to
+     * @throws FileSystemException If the file could not be copied.
+     */
+    public void copy( String sourcePath, String destPath ) throws FileSystemException
     {
         sourcePath = sanitizePath( sourcePath );
         destPath = sanitizePath( destPath );
@@ -572,7 +873,7 @@ public class FileSystem
         copyRecursive( sourcePath, getMount( sourcePath ), destPath, getMount( destPath ) );
     }
 
-    private synchronized void copyRecursive( String sourcePath, MountWrapper sourceMount, String destinationPath, MountWrapper destinationMount ) throws FileSystemException
+    private void copyRecursive( String sourcePath, MountWrapper sourceMount, String destinationPath, MountWrapper destinationMount ) throws FileSystemException
     {
         if( !sourceMount.exists( sourcePath ) )
         {
@@ -596,6 +897,10 @@ public class FileSystem
                 );
             }
         }
+        else if( sourceMount == destinationMount && sourceMount.copyFileDirect( sourcePath, destinationPath ) )
+        {
+            // The mount copied the file itself.
+        }
         else
         {
             // Copy a file:
@@ -608,7 +913,7 @@ public class FileSystem
                 destination = destinationMount.openForWrite( destinationPath );
             
                 // Copy bytes as fast as we can
-                byte[] buffer = new byte[1024];
+                byte[] buffer = new byte[ COPY_BUFFER_SIZE ];
                 while( true )
                 {
                     int bytesRead = source.read( buffer );
@@ -649,7 +954,7 @@ public class FileSystem
         }
     }
 
-    private synchronized <T> T openFile( T file, Closeable handle ) throws FileSystemException
+    private <T> T openFile( T file, Closeable handle ) throws FileSystemException
     {
         synchronized( m_openFiles )
         {
@@ -672,7 +977,7 @@ public class FileSystem
         }
     }
 
-    private synchronized void closeFile( Closeable handle ) throws IOException
+    private void closeFile( Closeable handle ) throws IOException
     {
         synchronized( m_openFiles )
         {
@@ -681,7 +986,7 @@ public class FileSystem
         }
     }
     
-    public synchronized InputStream openForRead( String path ) throws FileSystemException
+    public InputStream openForRead( String path ) throws FileSystemException
     {
         path = sanitizePath ( path );
         MountWrapper mount = getMount( path );
@@ -693,6 +998,30 @@ public class FileSystem
         return null;
     }
 
+    /**
+     * Open a file for reading as a channel. This will be a {@link SeekableByteChannel} if the underlying mount
+     * supports it.
+     *
+     * @param path The path to the file to open
+     * @return The opened channel.
+     * @throws FileSystemException If the file does not exist or could not be opened.
+     */
+    public ReadableByteChannel openChannelForRead( String path ) throws FileSystemException
+    {
+        path = sanitizePath ( path );
+        MountWrapper mount = getMount( path );
+        ReadableByteChannel channel = mount.openChannelForRead( path );
+        if( channel instanceof SeekableByteChannel )
+        {
+            return openFile( new ClosingSeekableChannel( (SeekableByteChannel) channel ), channel );
+        }
+        else if( channel != null )
+        {
+            return openFile( new ClosingChannel( channel ), channel );
+        }
+        return null;
+    }
+
     public synchronized OutputStream openForWrite( String path, boolean append ) throws FileSystemException
     {
         path = sanitizePath ( path );
@@ -714,26 +1043,13 @@ public class FileSystem
         
     private MountWrapper getMount( String path ) throws FileSystemException
     {
-        // Return the deepest mount that contains a given path
-        Iterator<MountWrapper> it = m_mounts.values().iterator();
-        MountWrapper match = null;
-        int matchLength = 999;
-        while( it.hasNext() )
-        {
-            MountWrapper mount = it.next();
-            if( contains( mount.getLocation(), path ) ) {
-                int len = toLocal( path, mount.getLocation() ).length();
-                if( match == null || len < matchLength ) {
-                    match = mount;
-                    matchLength = len;
-                }
-            }
-        }
-        if( match == null )
+        // Return the deepest mount that contains a given path. Mounts are sorted deepest first, so this is the first
+        // one which matches.
+        for( MountWrapper mount : m_mounts )
         {
-            throw new FileSystemException( "/" + path + ": Invalid Path" );
+            if( containsSanitised( mount.getLocation(), path ) ) return mount;
         }
-        return match;
+        throw new FileSystemException( "/" + path + ": Invalid Path" );
     }
 
     public IFileSystem getMountWrapper()
@@ -746,8 +1062,23 @@ public class FileSystem
         return sanitizePath( path, false );
     }
 
-    private static final Pattern threeDotsPattern = Pattern.compile( "^\\.{3,}$" );
     private static String sanitizePath( String path, boolean allowWildcards )
+    {
+        if( path.length() > MAX_CACHED_PATH_LENGTH ) return normalisePath( path, allowWildcards );
+
+        int slot = (path.hashCode() * 31 + (allowWildcards ? 1 : 0)) & (PATH_CACHE_SIZE - 1);
+        SanitisedPath cached = s_pathCache[ slot ];
+        if( cached != null && cached.allowWildcards == allowWildcards && cached.path.equals( path ) )
+        {
+            return cached.sanitised;
+        }
+
+        String sanitised = normalisePath( path, allowWildcards );
+        s_pathCache[ slot ] = new SanitisedPath( path, allowWildcards, sanitised );
+        return sanitised;
+    }
+
+    private static String normalisePath( String path, boolean allowWildcards )
     {
         // Allow windowsy slashes
         path = path.replace( '\\', '/' );
@@ -757,7 +1088,7 @@ public class FileSystem
             '"', ':', '<', '>', '?', '|' // Sorted by ascii value (important)
         };
 
-        StringBuilder cleanName = new StringBuilder();
+        StringBuilder cleanName = new StringBuilder( path.length() );
         for( int i = 0; i < path.length(); i++ ) {
             char c = path.charAt(i);
             if( c >= 32 && Arrays.binarySearch( specialChars, c ) < 0 && (allowWildcards || c != '*') )
@@ -769,10 +1100,10 @@ public class FileSystem
         
         // Collapse the string into its component parts, removing ..'s
         String[] parts = path.split("/");
-        Stack<String> outputParts = new Stack<>();
+        ArrayList<String> outputParts = new ArrayList<>( parts.length );
         for( String part : parts )
         {
-            if( part.length() == 0 || part.equals( "." ) || threeDotsPattern.matcher( part ).matches() ) 
+            if( part.length() == 0 || part.equals( "." ) || isAllDots( part ) )
             {
                 // . is redundant
                 // ... and more are treated as .
@@ -781,54 +1112,68 @@ public class FileSystem
             else if( part.equals( ".." ) )
             {
                 // .. can cancel out the last folder entered
-                if( !outputParts.empty() )
+                if( !outputParts.isEmpty() )
                 {
-                    String top = outputParts.peek();
+                    String top = outputParts.get( outputParts.size() - 1 );
                     if( !top.equals( ".." ) )
                     {
-                        outputParts.pop();
+                        outputParts.remove( outputParts.size() - 1 );
                     }
                     else
                     {
-                        outputParts.push( ".." );
+                        outputParts.add( ".." );
                     }
                 }
                 else
                 {
-                    outputParts.push( ".." );
+                    outputParts.add( ".." );
                 }
             }
             else if( part.length() >= 255 )
             {
                 // If part length > 255 and it is the last part
-                outputParts.push( part.substring( 0, 255 ) );
+                outputParts.add( part.substring( 0, 255 ) );
             }
             else
             {
                 // Anything else we add to the stack
-                outputParts.push( part );
+                outputParts.add( part );
             }
         }
         
         // Recombine the output parts into a new string
-        StringBuilder result = new StringBuilder( "" );
-        Iterator<String> it = outputParts.iterator();
-        while( it.hasNext() ) {
-            String part = it.next();
-            result.append( part );
-            if( it.hasNext() ) {
-                result.append( '/' );
-            }
+        StringBuilder result = new StringBuilder( path.length() );
+        for( int i = 0; i < outputParts.size(); i++ ) {
+            if( i > 0 ) result.append( '/' );
+            result.append( outputParts.get( i ) );
         }
 
         return result.toString();
     }
+
+    /**
+     * Determine whether a path component consists of three or more dots.
+     *
+     * @param part The path component to check
+     * @return Whether this component is all dots.
+     */
+    private static boolean isAllDots( String part )
+    {
+        if( part.length() < 3 ) return false;
+        for( int i = 0; i < part.length(); i++ )
+        {
+            if( part.charAt( i ) != '.' ) return false;
+        }
+        return true;
+    }
     
     public static boolean contains( String pathA, String pathB )
     {
-        pathA = sanitizePath( pathA );
-        pathB = sanitizePath( pathB );
+        return containsSanitised( sanitizePath( pathA ), sanitizePath( pathB ) );
+    }
 
+    private static boolean containsSanitised( String pathA, String pathB )
+    {
         if( pathB.equals("..") )
         {
             return false;
@@ -847,7 +1192,7 @@ public class FileSystem
         }
         else
         {
-            return pathB.startsWith( pathA + "/" );
+            return pathB.length() > pathA.length() && pathB.charAt( pathA.length() ) == '/' && pathB.startsWith( pathA );
         }
     }
     
@@ -894,4 +1239,89 @@ public class FileSystem
             closeFile( out );
         }
     }
+
+    private class ClosingChannel implements ReadableByteChannel
+    {
+        protected final ReadableByteChannel m_channel;
+
+        protected ClosingChannel( ReadableByteChannel channel )
+        {
+            m_channel = channel;
+        }
+
+        @Override
+        public int read( ByteBuffer destination ) throws IOException
+        {
+            return m_channel.read( destination );
+        }
+
+        @Override
+        public boolean isOpen()
+        {
+            return m_channel.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            m_channel.close();
+            closeFile( m_channel );
+        }
+    }
+
+    private class ClosingSeekableChannel extends ClosingChannel implements SeekableByteChannel
+    {
+        private final SeekableByteChannel m_seekable;
+
+        protected ClosingSeekableChannel( SeekableByteChannel channel )
+        {
+            super( channel );
+            m_seekable = channel;
+        }
+
+        @Override
+        public int write( ByteBuffer source )
+        {
+            throw new NonWritableChannelException();
+        }
+
+        @Override
+        public long position() throws IOException
+        {
+            return m_seekable.position();
+        }
+
+        @Override
+        public SeekableByteChannel position( long position ) throws IOException
+        {
+            m_seekable.position( position );
+            return this;
+        }
+
+        @Override
+        public long size() throws IOException
+        {
+            return m_seekable.size();
+        }
+
+        @Override
+        public SeekableByteChannel truncate( long size )
+        {
+            throw new NonWritableChannelException();
+        }
+    }
+
+    private static final class SanitisedPath
+    {
+        final String path;
+        final boolean allowWildcards;
+        final String sanitised;
+
+        SanitisedPath( String path, boolean allowWildcards, String sanitised )
+        {
+            this.path = path;
+            this.allowWildcards = allowWildcards;
+            this.sanitised = sanitised;
+        }
+    }
 }
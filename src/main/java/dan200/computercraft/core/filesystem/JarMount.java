@@ -6,108 +6,81 @@
 
 package dan200.computercraft.core.filesystem;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.io.ByteStreams;
 import dan200.computercraft.api.filesystem.IMount;
 
 import javax.annotation.Nonnull;
-import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.IOException;
-import java.io.InputStream;
-import java.util.Enumeration;
-import java.util.LinkedHashMap;
-import java.util.List;
-import java.util.Map;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
+/**
+ * A read-only mount of a directory within a jar file.
+ *
+ * The whole directory is decompressed into a single array when the mount is created, and files are read directly
+ * from it. The loaded contents are shared between all mounts of the same directory, so every computer uses the same
+ * copy of the ROM.
+ */
 public class JarMount implements IMount
-{    
-    private class FileInZip
+{
+    /**
+     * Directories which have already been loaded, keyed by the jar file, its modification time and the directory
+     * within it. Values are held weakly, so contents are discarded once nothing mounts them.
+     */
+    private static final Cache<String, Contents> s_contents = CacheBuilder.newBuilder()
+        .weakValues()
+        .build();
+
+    private static class FileInZip
     {
-        private String m_path;
-        private boolean m_directory;
-        private long m_size;
-        private Map<String, FileInZip> m_children;
-        
-        public FileInZip( String path, boolean directory, long size )
-        {
-            m_path = path;
-            m_directory = directory;
-            m_size = m_directory ? 0 : size;
-            m_children = new LinkedHashMap<>();
-        }
-        
-        public String getPath()
+        private final boolean m_directory;
+        private final int m_offset;
+        private final int m_size;
+        private final List<String> m_children;
+
+        public FileInZip( boolean directory, int offset, int size )
         {
-            return m_path;
+            m_directory = directory;
+            m_offset = offset;
+            m_size = directory ? 0 : size;
+            m_children = directory ? new ArrayList<>() : Collections.emptyList();
         }
-        
+
         public boolean isDirectory()
         {
             return m_directory;
         }
-                
+
         public long getSize()
         {
             return m_size;
         }
-        
+
         public void list( List<String> contents )
         {
-            contents.addAll( m_children.keySet() );
-        }
-                
-        public void insertChild( FileInZip child )
-        {
-            String localPath = FileSystem.toLocal( child.getPath(), m_path );
-            m_children.put( localPath, child );
+            contents.addAll( m_children );
         }
+    }
 
-        public FileInZip getFile( String path ) 
-        {
-            // If we've reached the target, return this
-            if( path.equals( m_path ) )
-            {
-                return this;
-            }
-            
-            // Otherwise, get the next component of the path
-            String localPath = FileSystem.toLocal( path, m_path );
-            int slash = localPath.indexOf("/");
-            if( slash >= 0 )
-            {
-                localPath = localPath.substring( 0, slash );
-            }
+    private static final class Contents
+    {
+        private final byte[] m_data;
+        private final Map<String, FileInZip> m_files;
 
-            // And recurse down using it
-            FileInZip subFile = m_children.get( localPath );
-            if( subFile != null )
-            {
-                return subFile.getFile( path );
-            }
-            
-            return null;
-        }
-        
-        public FileInZip getParent( String path )
+        private Contents( byte[] data, Map<String, FileInZip> files )
         {
-            if( path.length() == 0 )
-            {
-                return null;
-            }
-            
-            FileInZip file = getFile( FileSystem.getDirectory( path ) );
-            if( file.isDirectory() )
-            {
-                return file;
-            }
-            return null;
+            m_data = data;
+            m_files = files;
         }
     }
-    
-    private ZipFile m_zipFile;
-    private FileInZip m_root;
-    private String m_rootPath;
+
+    private final Contents m_contents;
 
     public JarMount( File jarFile, String subPath ) throws IOException
     {
@@ -115,39 +88,60 @@ public class JarMount implements IMount
         {
             throw new FileNotFoundException();
         }
-        
+
+        String key = jarFile.getAbsolutePath() + "!" + jarFile.lastModified() + "!" + subPath;
+        try
+        {
+            m_contents = s_contents.get( key, () -> load( jarFile, subPath ) );
+        }
+        catch( ExecutionException e )
+        {
+            Throwable cause = e.getCause();
+            if( cause instanceof IOException ) throw (IOException) cause;
+            throw new IOException( "Error loading zip file", cause );
+        }
+    }
+
+    private static Contents load( File jarFile, String subPath ) throws IOException
+    {
         // Open the zip file
+        ZipFile zipFile;
         try
         {
-            m_zipFile = new ZipFile( jarFile );
+            zipFile = new ZipFile( jarFile );
         }
         catch( Exception e )
         {
             throw new IOException( "Error loading zip file" );
         }
-    
-        if( m_zipFile.getEntry( subPath ) == null )
-        {
-            m_zipFile.close();
-            throw new IOException( "Zip does not contain path" );
-        }
-    
-        // Read in all the entries
-        Enumeration<? extends ZipEntry> zipEntries = m_zipFile.entries();
-        while( zipEntries.hasMoreElements() )
+
+        try
         {
-            ZipEntry entry = zipEntries.nextElement();
-            String entryName = entry.getName();
-            if( entryName.startsWith( subPath ) )
-            {                    
+            if( zipFile.getEntry( subPath ) == null )
+            {
+                throw new IOException( "Zip does not contain path" );
+            }
+
+            // Read in all the entries, copying each file's contents into a single buffer
+            Map<String, FileInZip> files = new HashMap<>();
+            ByteArrayOutputStream data = new ByteArrayOutputStream();
+            FileInZip root = null;
+
+            Enumeration<? extends ZipEntry> zipEntries = zipFile.entries();
+            while( zipEntries.hasMoreElements() )
+            {
+                ZipEntry entry = zipEntries.nextElement();
+                String entryName = entry.getName();
+                if( !entryName.startsWith( subPath ) ) continue;
+
                 entryName = FileSystem.toLocal( entryName, subPath );
-                if( m_root == null )
+                if( root == null )
                 {
                     if( entryName.equals( "" ) )
                     {
-                        m_root = new FileInZip( entryName, entry.isDirectory(), entry.getSize() );
-                        m_rootPath = subPath;
-                        if( !m_root.isDirectory() )
+                        root = readEntry( zipFile, entry, data );
+                        files.put( entryName, root );
+                        if( !root.isDirectory() )
                         {
                             break;
                         }
@@ -159,44 +153,62 @@ public class JarMount implements IMount
                 }
                 else
                 {
-                    FileInZip parent = m_root.getParent( entryName );
-                    if( parent != null )
+                    FileInZip parent = files.get( FileSystem.getDirectory( entryName ) );
+                    if( parent != null && parent.isDirectory() )
                     {
-                        parent.insertChild( new FileInZip( entryName, entry.isDirectory(), entry.getSize() ) );
+                        parent.m_children.add( FileSystem.getName( entryName ) );
+                        files.put( entryName, readEntry( zipFile, entry, data ) );
                     }
                     else
                     {
                         // TODO: handle this case. The code currently assumes we find folders before their contents
                     }
                 }
-            }            
+            }
+
+            return new Contents( data.toByteArray(), files );
+        }
+        finally
+        {
+            zipFile.close();
         }
     }
-    
+
+    private static FileInZip readEntry( ZipFile zipFile, ZipEntry entry, ByteArrayOutputStream data ) throws IOException
+    {
+        if( entry.isDirectory() ) return new FileInZip( true, 0, 0 );
+
+        int offset = data.size();
+        try( InputStream stream = zipFile.getInputStream( entry ) )
+        {
+            ByteStreams.copy( stream, data );
+        }
+        return new FileInZip( false, offset, data.size() - offset );
+    }
+
     // IMount implementation
-    
+
     @Override
     public boolean exists( @Nonnull String path )
     {
-        FileInZip file = m_root.getFile( path );
-        return file != null;
+        return m_contents.m_files.containsKey( path );
     }
-    
+
     @Override
     public boolean isDirectory( @Nonnull String path )
     {
-        FileInZip file = m_root.getFile( path );
+        FileInZip file = m_contents.m_files.get( path );
         if( file != null )
         {
             return file.isDirectory();
         }
         return false;
     }
-    
+
     @Override
     public void list( @Nonnull String path, @Nonnull List<String> contents ) throws IOException
     {
-        FileInZip file = m_root.getFile( path );
+        FileInZip file = m_contents.m_files.get( path );
         if( file != null && file.isDirectory() )
         {
             file.list( contents );
@@ -206,11 +218,11 @@ public class JarMount implements IMount
             throw new IOException(  "/" + path + ": Not a directory" );
         }
     }
-    
+
     @Override
     public long getSize( @Nonnull String path ) throws IOException
     {
-        FileInZip file = m_root.getFile( path );
+        FileInZip file = m_contents.m_files.get( path );
         if( file != null )
         {
             return file.getSize();
@@ -222,26 +234,22 @@ public class JarMount implements IMount
     @Override
     public InputStream openForRead( @Nonnull String path ) throws IOException
     {
-        FileInZip file = m_root.getFile( path );
+        FileInZip file = m_contents.m_files.get( path );
         if( file != null && !file.isDirectory() )
         {
-            try
-            {
-                String fullPath = m_rootPath;
-                if( path.length() > 0 )
-                {
-                    fullPath = fullPath + "/" + path;
-                }
-                ZipEntry entry = m_zipFile.getEntry( fullPath );
-                if( entry != null )
-                {
-                    return m_zipFile.getInputStream( entry );
-                }
-            }
-            catch( Exception e )
-            {
-                // treat errors as non-existance of file
-            }
+            return new ByteArrayInputStream( m_contents.m_data, file.m_offset, file.m_size );
+        }
+        throw new IOException(  "/" + path  + ": No such file" );
+    }
+
+    @Nonnull
+    @Override
+    public ReadableByteChannel openChannelForRead( @Nonnull String path ) throws IOException
+    {
+        FileInZip file = m_contents.m_files.get( path );
+        if( file != null && !file.isDirectory() )
+        {
+            return new ByteBufferChannel( ByteBuffer.wrap( m_contents.m_data, file.m_offset, file.m_size ).asReadOnlyBuffer() );
         }
         throw new IOException(  "/" + path  + ": No such file" );
     }
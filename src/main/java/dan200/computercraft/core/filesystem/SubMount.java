@@ -11,6 +11,7 @@ import dan200.computercraft.api.filesystem.IMount;
 import javax.annotation.Nonnull;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.channels.ReadableByteChannel;
 import java.util.List;
 
 public class SubMount implements IMount
@@ -56,6 +57,13 @@ public class SubMount implements IMount
     {
         return m_parent.openForRead( getFullPath( path ) );
     }
+
+    @Nonnull
+    @Override
+    public ReadableByteChannel openChannelForRead( @Nonnull String path ) throws IOException
+    {
+        return m_parent.openChannelForRead( getFullPath( path ) );
+    }
     
     private String getFullPath( String path )
     {
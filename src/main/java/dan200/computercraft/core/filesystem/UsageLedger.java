@@ -0,0 +1,217 @@
+/*
+ * This file is part of ComputerCraft - http://www.computercraft.info
+ * Copyright Daniel Ratcliffe, 2011-2017. Do not distribute without permission.
+ * Send enquiries to dratcliffe@gmail.com
+ */
+
+package dan200.computercraft.core.filesystem;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import dan200.computercraft.ComputerCraft;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongSupplier;
+
+/**
+ * Persists the space used by a {@link FileMount}, so it does not need to walk its whole directory tree every time it
+ * is created.
+ *
+ * The ledger is stored next to the mount's root directory, and records the root's modification time when it was
+ * written. A ledger whose time no longer matches is ignored. Changes made deeper in the tree outside of ComputerCraft
+ * will not be noticed, so the ledger also records when the mount was last measured. Mounts which have not been
+ * measured for a while are {@link #reconcile(Runnable) reconciled} in the background, one at a time.
+ *
+ * As soon as a mount changes, the ledger is marked as dirty on disk, and only marked clean once the new usage has been
+ * saved. If the server stops before then, the mount is reconciled when it is next loaded.
+ */
+final class UsageLedger
+{
+    /**
+     * The suffix appended to the root directory's name to get the ledger's file name.
+     */
+    static final String SUFFIX = ".usage";
+
+    private static final int VERSION = 3;
+
+    /**
+     * How long to wait after a change before writing the ledger, in milliseconds. This means a series of writes only
+     * results in the ledger being saved once.
+     */
+    private static final long SAVE_DELAY = 5000;
+
+    /**
+     * How long a ledger may go without the mount being measured, in milliseconds.
+     */
+    private static final long RECONCILE_INTERVAL = TimeUnit.DAYS.toMillis( 1 );
+
+    /**
+     * How long to wait between reconciling each mount, in milliseconds. This stops loading many mounts at once (such as
+     * when a world is opened) from walking all of their directories in one go.
+     */
+    private static final long RECONCILE_SPACING = 1000;
+
+    private static final Queue<Runnable> s_reconciles = new ConcurrentLinkedQueue<>();
+    private static final AtomicBoolean s_reconcileScheduled = new AtomicBoolean( false );
+
+    private static final ScheduledExecutorService EXECUTOR = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactoryBuilder()
+            .setDaemon( true )
+            .setPriority( Thread.MIN_PRIORITY )
+            .setNameFormat( "ComputerCraft-Usage-Ledger" )
+            .build()
+    );
+
+    private final File m_root;
+    private final File m_file;
+    private final LongSupplier m_usage;
+    private final AtomicBoolean m_saveScheduled = new AtomicBoolean( false );
+
+    /**
+     * When the mount was last measured, as given by {@link System#currentTimeMillis()}.
+     */
+    private volatile long m_verified;
+
+    UsageLedger( File root, LongSupplier usage )
+    {
+        m_root = root;
+        m_file = new File( root.getParentFile(), root.getName() + SUFFIX );
+        m_usage = usage;
+    }
+
+    /**
+     * Read the used space from the ledger.
+     *
+     * @return The recorded used space, or {@code -1} if there is no ledger or it is out of date.
+     */
+    long load()
+    {
+        if( !m_file.isFile() ) return -1;
+
+        try( DataInputStream input = new DataInputStream( new BufferedInputStream( new FileInputStream( m_file ) ) ) )
+        {
+            int version = input.readInt();
+            if( version != VERSION ) return -1;
+
+            long usedSpace = input.readLong();
+            long modified = input.readLong();
+            m_verified = input.readLong();
+
+            // Changes were made which never made it into the ledger, so check it as soon as possible.
+            boolean clean = input.readBoolean();
+            if( !clean ) m_verified = 0;
+
+            return usedSpace >= 0 && modified == m_root.lastModified() ? usedSpace : -1;
+        }
+        catch( IOException e )
+        {
+            return -1;
+        }
+    }
+
+    /**
+     * Mark the ledger as out of date, recording this on disk straight away and scheduling it to be saved shortly.
+     */
+    void markDirty()
+    {
+        if( m_saveScheduled.compareAndSet( false, true ) )
+        {
+            EXECUTOR.execute( () -> write( false ) );
+            EXECUTOR.schedule( this::save, SAVE_DELAY, TimeUnit.MILLISECONDS );
+        }
+    }
+
+    /**
+     * Record that the mount's used space has just been measured, scheduling the ledger to be saved.
+     */
+    void markVerified()
+    {
+        m_verified = System.currentTimeMillis();
+        markDirty();
+    }
+
+    /**
+     * Determine whether the mount has gone too long without being measured, and so should be reconciled.
+     *
+     * @return Whether the mount should be reconciled.
+     */
+    boolean needsReconcile()
+    {
+        return System.currentTimeMillis() - m_verified > RECONCILE_INTERVAL;
+    }
+
+    /**
+     * Queue a mount to be reconciled on the ledger's background thread. Reconciles from every mount share a single
+     * queue, and are spaced out so only one directory is walked at a time.
+     *
+     * @param task The task which reconciles the mount
+     */
+    static void reconcile( Runnable task )
+    {
+        s_reconciles.add( task );
+        scheduleReconcile();
+    }
+
+    private static void scheduleReconcile()
+    {
+        if( !s_reconciles.isEmpty() && s_reconcileScheduled.compareAndSet( false, true ) )
+        {
+            EXECUTOR.schedule( UsageLedger::runReconcile, RECONCILE_SPACING, TimeUnit.MILLISECONDS );
+        }
+    }
+
+    private static void runReconcile()
+    {
+        try
+        {
+            Runnable task = s_reconciles.poll();
+            if( task != null ) task.run();
+        }
+        catch( RuntimeException e )
+        {
+            ComputerCraft.log.error( "Error reconciling disk usage", e );
+        }
+        finally
+        {
+            s_reconcileScheduled.set( false );
+            scheduleReconcile();
+        }
+    }
+
+    private void save()
+    {
+        m_saveScheduled.set( false );
+        write( true );
+    }
+
+    private void write( boolean clean )
+    {
+        if( !m_root.isDirectory() ) return;
+
+        File temp = new File( m_root.getParentFile(), m_root.getName() + ".tmp" + SUFFIX );
+        try
+        {
+            try( DataOutputStream output = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( temp ) ) ) )
+            {
+                output.writeInt( VERSION );
+                output.writeLong( m_usage.getAsLong() );
+                output.writeLong( m_root.lastModified() );
+                output.writeLong( m_verified );
+                output.writeBoolean( clean );
+            }
+
+            Files.move( temp.toPath(), m_file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+        }
+        catch( IOException e )
+        {
+            ComputerCraft.log.warn( "Cannot save disk usage for " + m_root, e );
+        }
+    }
+}
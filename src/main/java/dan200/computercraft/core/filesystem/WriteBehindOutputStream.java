@@ -0,0 +1,242 @@
+/*
+ * This file is part of ComputerCraft - http://www.computercraft.info
+ * Copyright Daniel Ratcliffe, 2011-2017. Do not distribute without permission.
+ * Send enquiries to dratcliffe@gmail.com
+ */
+
+package dan200.computercraft.core.filesystem;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import dan200.computercraft.ComputerCraft;
+
+import javax.annotation.Nonnull;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Buffers writes to a file, only passing them to the operating system when the buffer fills, when the stream is
+ * flushed or closed, or once the data has been waiting for {@link ComputerCraft#fileFlushInterval}.
+ *
+ * A single background thread periodically flushes the buffers of every open stream, so programs which write a byte or
+ * line at a time (such as loggers) result in a few large writes rather than many small ones.
+ *
+ * Buffered data is not visible to other readers of the file, so {@link FileMount} calls {@link #flush(File)} before
+ * reading, measuring, deleting or overwriting a file.
+ */
+public final class WriteBehindOutputStream extends OutputStream
+{
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    /**
+     * How often the background thread checks for buffers which need flushing, in milliseconds.
+     */
+    private static final long TICK_INTERVAL = 100;
+
+    private static final AtomicLong s_writes = new AtomicLong();
+    private static final AtomicLong s_systemWrites = new AtomicLong();
+    private static final AtomicLong s_syncs = new AtomicLong();
+
+    /**
+     * All streams which have data waiting to be written.
+     */
+    private static final Set<WriteBehindOutputStream> s_dirty = Collections.newSetFromMap( new ConcurrentHashMap<>() );
+
+    private static final ScheduledExecutorService EXECUTOR = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactoryBuilder()
+            .setDaemon( true )
+            .setPriority( Thread.MIN_PRIORITY + (Thread.NORM_PRIORITY - Thread.MIN_PRIORITY) / 2 )
+            .setNameFormat( "ComputerCraft-File-Flusher" )
+            .build()
+    );
+
+    static
+    {
+        EXECUTOR.scheduleWithFixedDelay( WriteBehindOutputStream::flushDirty, TICK_INTERVAL, TICK_INTERVAL, TimeUnit.MILLISECONDS );
+    }
+
+    private final FileOutputStream m_stream;
+    private final Path m_path;
+    private final byte[] m_buffer = new byte[ BUFFER_SIZE ];
+    private int m_count;
+    private long m_dirtySince;
+    private boolean m_closed;
+
+    WriteBehindOutputStream( FileOutputStream stream, File file )
+    {
+        m_stream = stream;
+        m_path = file.getAbsoluteFile().toPath();
+    }
+
+    @Override
+    public synchronized void write( int b ) throws IOException
+    {
+        checkOpen();
+        s_writes.incrementAndGet();
+
+        if( m_count == m_buffer.length ) flushBuffer();
+        markDirty();
+        m_buffer[ m_count++ ] = (byte) b;
+    }
+
+    @Override
+    public synchronized void write( @Nonnull byte[] b, int off, int len ) throws IOException
+    {
+        checkOpen();
+        s_writes.incrementAndGet();
+
+        if( len >= m_buffer.length )
+        {
+            // Large writes gain nothing from being buffered, so write them straight away.
+            flushBuffer();
+            m_stream.write( b, off, len );
+            s_systemWrites.incrementAndGet();
+            return;
+        }
+
+        if( len > m_buffer.length - m_count ) flushBuffer();
+        markDirty();
+        System.arraycopy( b, off, m_buffer, m_count, len );
+        m_count += len;
+    }
+
+    @Override
+    public synchronized void flush() throws IOException
+    {
+        checkOpen();
+        flushBuffer();
+    }
+
+    @Override
+    public synchronized void close() throws IOException
+    {
+        if( m_closed ) return;
+        m_closed = true;
+
+        try
+        {
+            flushBuffer();
+            if( ComputerCraft.syncFilesOnClose )
+            {
+                m_stream.getFD().sync();
+                s_syncs.incrementAndGet();
+            }
+        }
+        finally
+        {
+            s_dirty.remove( this );
+            m_stream.close();
+        }
+    }
+
+    private void checkOpen() throws IOException
+    {
+        if( m_closed ) throw new IOException( "Stream is closed" );
+    }
+
+    private void markDirty()
+    {
+        if( m_count == 0 )
+        {
+            m_dirtySince = System.nanoTime();
+            s_dirty.add( this );
+        }
+    }
+
+    private void flushBuffer() throws IOException
+    {
+        if( m_count == 0 ) return;
+
+        m_stream.write( m_buffer, 0, m_count );
+        s_systemWrites.incrementAndGet();
+        m_count = 0;
+        s_dirty.remove( this );
+    }
+
+    private synchronized void flushIfOlder( long threshold )
+    {
+        if( m_closed || m_count == 0 || m_dirtySince - threshold > 0 ) return;
+        flushQuietly();
+    }
+
+    private void flushQuietly()
+    {
+        try
+        {
+            flushBuffer();
+        }
+        catch( IOException e )
+        {
+            // The next write or close will try again, and report the error to the computer.
+            ComputerCraft.log.debug( "Cannot flush buffered file", e );
+        }
+    }
+
+    private static void flushDirty()
+    {
+        long threshold = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos( ComputerCraft.fileFlushInterval );
+        for( WriteBehindOutputStream stream : s_dirty )
+        {
+            stream.flushIfOlder( threshold );
+        }
+    }
+
+    /**
+     * Write out any buffered data for a file, or for any file within a directory.
+     *
+     * @param file The file or directory to flush.
+     */
+    static void flush( File file )
+    {
+        if( s_dirty.isEmpty() ) return;
+
+        Path path = file.getAbsoluteFile().toPath();
+        for( WriteBehindOutputStream stream : s_dirty )
+        {
+            if( !stream.m_path.startsWith( path ) ) continue;
+            synchronized( stream )
+            {
+                if( !stream.m_closed ) stream.flushQuietly();
+            }
+        }
+    }
+
+    /**
+     * Get the number of writes made by computers to buffered files.
+     *
+     * @return The number of writes.
+     */
+    public static long getWrites()
+    {
+        return s_writes.get();
+    }
+
+    /**
+     * Get the number of writes passed on to the operating system.
+     *
+     * @return The number of system writes.
+     */
+    public static long getSystemWrites()
+    {
+        return s_systemWrites.get();
+    }
+
+    /**
+     * Get the number of times a file has been synced to disk on close.
+     *
+     * @return The number of file syncs.
+     */
+    public static long getSyncs()
+    {
+        return s_syncs.get();
+    }
+}
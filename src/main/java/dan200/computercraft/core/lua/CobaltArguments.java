@@ -0,0 +1,133 @@
+/*
+ * This file is part of ComputerCraft - http://www.computercraft.info
+ * Copyright Daniel Ratcliffe, 2011-2017. Do not distribute without permission.
+ * Send enquiries to dratcliffe@gmail.com
+ */
+
+package dan200.computercraft.core.lua;
+
+import dan200.computercraft.api.lua.IArguments;
+import dan200.computercraft.api.lua.LuaException;
+import org.squiddev.cobalt.Constants;
+import org.squiddev.cobalt.LuaString;
+import org.squiddev.cobalt.LuaValue;
+import org.squiddev.cobalt.Varargs;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * A view of the arguments to a Lua function, which only converts them to Java values when requested.
+ */
+final class CobaltArguments implements IArguments
+{
+    private final Varargs m_args;
+    private final int m_start;
+
+    CobaltArguments( Varargs args, int start )
+    {
+        m_args = args;
+        m_start = start;
+    }
+
+    @Override
+    public int count()
+    {
+        return Math.max( 0, m_args.count() - m_start + 1 );
+    }
+
+    @Nullable
+    @Override
+    public Object get( int index )
+    {
+        return index < 0 ? null : CobaltLuaMachine.toObject( m_args.arg( index + m_start ), null );
+    }
+
+    @Nonnull
+    @Override
+    public Object[] getAll()
+    {
+        return CobaltLuaMachine.toObjects( m_args, m_start );
+    }
+
+    @Nonnull
+    @Override
+    public String getType( int index )
+    {
+        if( index < 0 ) return "nil";
+        switch( m_args.arg( index + m_start ).type() )
+        {
+            case Constants.TNIL:
+            case Constants.TNONE:
+                return "nil";
+            case Constants.TINT:
+            case Constants.TNUMBER:
+                return "number";
+            case Constants.TBOOLEAN:
+                return "boolean";
+            case Constants.TSTRING:
+                return "string";
+            case Constants.TTABLE:
+                return "table";
+            case Constants.TFUNCTION:
+                return "function";
+            case Constants.TTHREAD:
+                return "thread";
+            default:
+                return "userdata";
+        }
+    }
+
+    @Override
+    public double getNumber( int index ) throws LuaException
+    {
+        LuaValue value = index < 0 ? Constants.NIL : m_args.arg( index + m_start );
+        switch( value.type() )
+        {
+            case Constants.TINT:
+            case Constants.TNUMBER:
+                return value.toDouble();
+            default:
+                throw badArgument( index, "number" );
+        }
+    }
+
+    @Nonnull
+    @Override
+    public String getString( int index ) throws LuaException
+    {
+        LuaValue value = index < 0 ? Constants.NIL : m_args.arg( index + m_start );
+        if( value.type() != Constants.TSTRING ) throw badArgument( index, "string" );
+        return value.toString();
+    }
+
+    @Nonnull
+    @Override
+    public ByteBuffer getBytes( int index ) throws LuaException
+    {
+        LuaValue value = index < 0 ? Constants.NIL : m_args.arg( index + m_start );
+        if( value.type() != Constants.TSTRING ) throw badArgument( index, "string" );
+
+        LuaString string = (LuaString) value;
+        return ByteBuffer.wrap( string.bytes, string.offset, string.length ).slice().asReadOnlyBuffer();
+    }
+
+    @Override
+    public void writeBytes( int index, @Nonnull OutputStream stream ) throws LuaException, IOException
+    {
+        LuaValue value = index < 0 ? Constants.NIL : m_args.arg( index + m_start );
+        if( value.type() != Constants.TSTRING ) throw badArgument( index, "string" );
+
+        // getBytes returns a read-only buffer, which can only be read by copying it, so pass the backing array instead.
+        LuaString string = (LuaString) value;
+        stream.write( string.bytes, string.offset, string.length );
+    }
+
+    private LuaException badArgument( int index, String expected )
+    {
+        return new LuaException( "bad argument #" + (index + 1) + " (" + expected + " expected, got " + getType( index ) + ")" );
+    }
+}
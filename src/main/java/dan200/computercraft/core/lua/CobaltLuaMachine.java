@@ -6,9 +6,13 @@
 
 package dan200.computercraft.core.lua;
 
+import com.google.common.collect.MapMaker;
+import com.google.common.io.ByteStreams;
+import com.sun.management.ThreadMXBean;
 import dan200.computercraft.ComputerCraft;
 import dan200.computercraft.api.lua.ILuaContext;
 import dan200.computercraft.api.lua.ILuaObject;
+import dan200.computercraft.api.lua.ILuaObjectWithArguments;
 import dan200.computercraft.api.lua.ILuaTask;
 import dan200.computercraft.api.lua.LuaException;
 import dan200.computercraft.api.lua.ILuaAPI;
@@ -28,9 +32,12 @@ import org.squiddev.cobalt.lib.*;
 import org.squiddev.cobalt.lib.platform.AbstractResourceManipulator;
 
 import javax.annotation.Nonnull;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.IdentityHashMap;
@@ -42,7 +49,19 @@ import static org.squiddev.cobalt.ValueFactory.varargsOf;
 
 public class CobaltLuaMachine implements ILuaMachine
 {
+    /**
+     * Method tables for each class of {@link ILuaObject}, so we do not need to rebuild them for every object.
+     */
+    private static final Map<Class<?>, MethodTable> s_methodTables = new MapMaker().weakKeys().makeMap();
+
+    /**
+     * Used to measure how much memory the Lua thread has allocated, or {@code null} if this is not supported by the
+     * current JVM.
+     */
+    private static final ThreadMXBean s_threadBean = getThreadBean();
+
     private final Computer m_computer;
+    private final ILuaContext m_context = new CobaltLuaContext();
 
     private final LuaState m_state;
     private final LuaTable m_globals;
@@ -52,6 +71,11 @@ public class CobaltLuaMachine implements ILuaMachine
     private String m_softAbortMessage;
     private String m_hardAbortMessage;
 
+    // The memory allocated while handling the current event, and the thread we last sampled it on.
+    private long m_allocated;
+    private long m_allocationThread = -1;
+    private long m_allocationBaseline;
+
     public CobaltLuaMachine( Computer computer )
     {
         m_computer = computer;
@@ -65,6 +89,7 @@ public class CobaltLuaMachine implements ILuaMachine
                 return null;
             }
         } );
+        state.compiler = PrototypeCache.INSTANCE;
         state.debug = new DebugHandler( state )
         {
             private int count = 0;
@@ -78,6 +103,7 @@ public class CobaltLuaMachine implements ILuaMachine
                 {
                     if( m_hardAbortMessage != null ) LuaThread.yield( state, NONE );
                     this.count = 0;
+                    checkAllocation();
                 }
                 else
                 {
@@ -94,6 +120,14 @@ public class CobaltLuaMachine implements ILuaMachine
                 handleSoftAbort();
             }
 
+            private void checkAllocation() throws LuaError
+            {
+                sampleAllocation();
+
+                long limit = ComputerCraft.allocationLimit;
+                if( limit > 0 && m_allocated > limit ) throw new LuaError( "Allocation limit exceeded" );
+            }
+
             private void handleSoftAbort() throws LuaError {
                 // If the soft abort has been cleared then we can reset our flags and continue.
                 String message = m_softAbortMessage;
@@ -173,7 +207,9 @@ public class CobaltLuaMachine implements ILuaMachine
 
         try
         {
-            LuaFunction value = LoadState.load( m_state, bios, "@bios.lua", m_globals );
+            byte[] contents = ByteStreams.toByteArray( bios );
+            PrototypeCache.INSTANCE.addSource( "@bios.lua", contents );
+            LuaFunction value = LoadState.load( m_state, new ByteArrayInputStream( contents ), "@bios.lua", m_globals );
             m_mainRoutine = new LuaThread( m_state, value, m_globals );
         }
         catch( CompileException e )
@@ -253,6 +289,49 @@ public class CobaltLuaMachine implements ILuaMachine
         {
             m_softAbortMessage = null;
             m_hardAbortMessage = null;
+
+            sampleAllocation();
+            m_computer.addAllocation( m_allocated );
+            m_allocated = 0;
+            m_allocationThread = -1;
+        }
+    }
+
+    /**
+     * Add the memory allocated by the current thread since we last sampled it to {@link #m_allocated}.
+     *
+     * Cobalt runs coroutines on separate Java threads, so we only count the difference if we are still on the same
+     * thread as the previous sample. This means the figures are an underestimate, rather than an exact count.
+     */
+    private void sampleAllocation()
+    {
+        if( s_threadBean == null ) return;
+
+        long thread = Thread.currentThread().getId();
+        long allocated = s_threadBean.getThreadAllocatedBytes( thread );
+        if( allocated < 0 ) return;
+
+        if( thread == m_allocationThread ) m_allocated += allocated - m_allocationBaseline;
+        m_allocationThread = thread;
+        m_allocationBaseline = allocated;
+    }
+
+    private static ThreadMXBean getThreadBean()
+    {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if( !(bean instanceof ThreadMXBean) ) return null;
+
+        ThreadMXBean threads = (ThreadMXBean) bean;
+        try
+        {
+            if( !threads.isThreadAllocatedMemorySupported() ) return null;
+            if( !threads.isThreadAllocatedMemoryEnabled() ) threads.setThreadAllocatedMemoryEnabled( true );
+            return threads;
+        }
+        catch( UnsupportedOperationException | SecurityException e )
+        {
+            ComputerCraft.log.warn( "Cannot track memory allocated by computers", e );
+            return null;
         }
     }
 
@@ -272,6 +351,9 @@ public class CobaltLuaMachine implements ILuaMachine
     @Override
     public boolean saveState( OutputStream output )
     {
+        // Cobalt runs each coroutine on its own Java thread, and our globals contain functions bound to live Java
+        // objects (APIs, file handles, peripherals). Neither can be serialised, so we always boot from scratch. The
+        // cost of doing so is instead reduced by sharing compiled ROM code between computers.
         return false;
     }
 
@@ -300,186 +382,249 @@ public class CobaltLuaMachine implements ILuaMachine
 
     private LuaTable wrapLuaObject( ILuaObject object )
     {
-        LuaTable table = new LuaTable();
         String[] methods = object.getMethodNames();
-        for( int i = 0; i < methods.length; ++i )
+        MethodTable methodTable = getMethodTable( object.getClass(), methods );
+
+        LuaTable table = new LuaTable( 0, methods.length );
+        LuaString[] keys = methodTable.keys;
+        for( int i = 0; i < keys.length; ++i )
+        {
+            if( keys[ i ] != null ) table.rawset( keys[ i ], new LuaObjectMethod( object, i, methods[ i ] ) );
+        }
+        return table;
+    }
+
+    /**
+     * Get the method table for a class, reusing the cached one if the object's method names have not changed.
+     *
+     * Most objects return the same method names for every instance, but this is not guaranteed, so we compare the
+     * names against the cached ones before using them.
+     *
+     * @param klass   The class of the object being wrapped
+     * @param methods The object's method names
+     * @return The method table for these names.
+     */
+    private static MethodTable getMethodTable( Class<?> klass, String[] methods )
+    {
+        MethodTable cached = s_methodTables.get( klass );
+        if( cached != null && (cached.names == methods || Arrays.equals( cached.names, methods )) ) return cached;
+
+        MethodTable table = new MethodTable( methods );
+        s_methodTables.put( klass, table );
+        return table;
+    }
+
+    /**
+     * The Lua keys for an object's methods, shared between all instances of a class.
+     */
+    private static final class MethodTable
+    {
+        final String[] names;
+        final LuaString[] keys;
+
+        MethodTable( String[] names )
+        {
+            this.names = names.clone();
+            this.keys = new LuaString[ names.length ];
+            for( int i = 0; i < names.length; i++ )
+            {
+                if( names[ i ] != null ) keys[ i ] = valueOf( names[ i ] );
+            }
+        }
+    }
+
+    /**
+     * A single method on an {@link ILuaObject}.
+     */
+    private class LuaObjectMethod extends VarArgFunction
+    {
+        private final ILuaObject object;
+        private final int method;
+        private final String methodName;
+
+        LuaObjectMethod( ILuaObject object, int method, String methodName )
+        {
+            this.object = object;
+            this.method = method;
+            this.methodName = methodName;
+        }
+
+        @Override
+        public Varargs invoke( LuaState state, Varargs _args ) throws LuaError
         {
-            if( methods[ i ] != null )
+            Object[] results;
+            try
+            {
+                if( object instanceof ILuaObjectWithArguments )
+                {
+                    results = ((ILuaObjectWithArguments) object).callMethod( m_context, method, new CobaltArguments( _args, 1 ) );
+                }
+                else
+                {
+                    results = object.callMethod( m_context, method, toObjects( _args, 1 ) );
+                }
+            }
+            catch( InterruptedException e )
+            {
+                throw new OrphanedThread();
+            }
+            catch( LuaException e )
             {
-                final int method = i;
-                final ILuaObject apiObject = object;
-                final String methodName = methods[ i ];
-                table.rawset( methodName, new VarArgFunction()
+                throw new LuaError( e.getMessage(), e.getLevel() );
+            }
+            catch( Throwable t )
+            {
+                if( ComputerCraft.logPeripheralErrors )
                 {
-                    @Override
-                    public Varargs invoke( final LuaState state, Varargs _args ) throws LuaError
+                    ComputerCraft.log.error( "Error calling " + methodName + " on " + object, t );
+                }
+                throw new LuaError( "Java Exception Thrown: " + t.toString(), 0 );
+            }
+            return toValues( results );
+        }
+    }
+
+    /**
+     * The context passed to every method call on this machine. This holds no per-call state, so a single instance is
+     * shared between all calls.
+     */
+    private class CobaltLuaContext implements ILuaContext
+    {
+        @Nonnull
+        @Override
+        public Object[] pullEvent( String filter ) throws LuaException, InterruptedException
+        {
+            Object[] results = pullEventRaw( filter );
+            if( results.length >= 1 && results[ 0 ].equals( "terminate" ) )
+            {
+                throw new LuaException( "Terminated", 0 );
+            }
+            return results;
+        }
+
+        @Nonnull
+        @Override
+        public Object[] pullEventRaw( String filter ) throws InterruptedException
+        {
+            return yield( new Object[] { filter } );
+        }
+
+        @Nonnull
+        @Override
+        public Object[] yield( Object[] yieldArgs ) throws InterruptedException
+        {
+            try
+            {
+                Varargs results = LuaThread.yield( m_state, toValues( yieldArgs ) );
+                return toObjects( results, 1 );
+            }
+            catch( OrphanedThread e )
+            {
+                throw new InterruptedException();
+            }
+            catch( Throwable e )
+            {
+                throw new RuntimeException( e );
+            }
+        }
+
+        @Override
+        public long issueMainThreadTask( @Nonnull final ILuaTask task ) throws LuaException
+        {
+            // Issue command
+            final long taskID = MainThread.getUniqueTaskID();
+            final ITask iTask = new ITask()
+            {
+                @Override
+                public Computer getOwner()
+                {
+                    return m_computer;
+                }
+
+                @Override
+                public void execute()
+                {
+                    try
                     {
-                        Object[] arguments = toObjects( _args, 1 );
-                        Object[] results;
-                        try
+                        Object[] results = task.execute();
+                        if( results != null )
                         {
-                            results = apiObject.callMethod( new ILuaContext()
-                            {
-                                @Nonnull
-                                @Override
-                                public Object[] pullEvent( String filter ) throws LuaException, InterruptedException
-                                {
-                                    Object[] results = pullEventRaw( filter );
-                                    if( results.length >= 1 && results[ 0 ].equals( "terminate" ) )
-                                    {
-                                        throw new LuaException( "Terminated", 0 );
-                                    }
-                                    return results;
-                                }
-
-                                @Nonnull
-                                @Override
-                                public Object[] pullEventRaw( String filter ) throws InterruptedException
-                                {
-                                    return yield( new Object[] { filter } );
-                                }
-
-                                @Nonnull
-                                @Override
-                                public Object[] yield( Object[] yieldArgs ) throws InterruptedException
-                                {
-                                    try
-                                    {
-                                        Varargs results = LuaThread.yield( state, toValues( yieldArgs ) );
-                                        return toObjects( results, 1 );
-                                    }
-                                    catch( OrphanedThread e )
-                                    {
-                                        throw new InterruptedException();
-                                    }
-                                    catch( Throwable e )
-                                    {
-                                        throw new RuntimeException( e );
-                                    }
-                                }
-
-                                @Override
-                                public long issueMainThreadTask( @Nonnull final ILuaTask task ) throws LuaException
-                                {
-                                    // Issue command
-                                    final long taskID = MainThread.getUniqueTaskID();
-                                    final ITask iTask = new ITask()
-                                    {
-                                        @Override
-                                        public Computer getOwner()
-                                        {
-                                            return m_computer;
-                                        }
-
-                                        @Override
-                                        public void execute()
-                                        {
-                                            try
-                                            {
-                                                Object[] results = task.execute();
-                                                if( results != null )
-                                                {
-                                                    Object[] eventArguments = new Object[ results.length + 2 ];
-                                                    eventArguments[ 0 ] = taskID;
-                                                    eventArguments[ 1 ] = true;
-                                                    System.arraycopy( results, 0, eventArguments, 2, results.length );
-                                                    m_computer.queueEvent( "task_complete", eventArguments );
-                                                }
-                                                else
-                                                {
-                                                    m_computer.queueEvent( "task_complete", new Object[] { taskID, true } );
-                                                }
-                                            }
-                                            catch( LuaException e )
-                                            {
-                                                m_computer.queueEvent( "task_complete", new Object[] {
-                                                    taskID, false, e.getMessage()
-                                                } );
-                                            }
-                                            catch( Throwable t )
-                                            {
-                                                if( ComputerCraft.logPeripheralErrors )
-                                                {
-                                                    ComputerCraft.log.error( "Error running task", t );
-                                                }
-                                                m_computer.queueEvent( "task_complete", new Object[] {
-                                                    taskID, false, "Java Exception Thrown: " + t.toString()
-                                                } );
-                                            }
-                                        }
-                                    };
-                                    if( MainThread.queueTask( iTask ) )
-                                    {
-                                        return taskID;
-                                    }
-                                    else
-                                    {
-                                        throw new LuaException( "Task limit exceeded" );
-                                    }
-                                }
-
-                                @Override
-                                public Object[] executeMainThreadTask( @Nonnull final ILuaTask task ) throws LuaException, InterruptedException
-                                {
-                                    // Issue task
-                                    final long taskID = issueMainThreadTask( task );
-
-                                    // Wait for response
-                                    while( true )
-                                    {
-                                        Object[] response = pullEvent( "task_complete" );
-                                        if( response.length >= 3 && response[ 1 ] instanceof Number && response[ 2 ] instanceof Boolean )
-                                        {
-                                            if( ((Number) response[ 1 ]).intValue() == taskID )
-                                            {
-                                                Object[] returnValues = new Object[ response.length - 3 ];
-                                                if( (Boolean) response[ 2 ] )
-                                                {
-                                                    // Extract the return values from the event and return them
-                                                    System.arraycopy( response, 3, returnValues, 0, returnValues.length );
-                                                    return returnValues;
-                                                }
-                                                else
-                                                {
-                                                    // Extract the error message from the event and raise it
-                                                    if( response.length >= 4 && response[ 3 ] instanceof String )
-                                                    {
-                                                        throw new LuaException( (String) response[ 3 ] );
-                                                    }
-                                                    else
-                                                    {
-                                                        throw new LuaException();
-                                                    }
-                                                }
-                                            }
-                                        }
-                                    }
-
-                                }
-                            }, method, arguments );
+                            Object[] eventArguments = new Object[ results.length + 2 ];
+                            eventArguments[ 0 ] = taskID;
+                            eventArguments[ 1 ] = true;
+                            System.arraycopy( results, 0, eventArguments, 2, results.length );
+                            m_computer.queueEvent( "task_complete", eventArguments );
                         }
-                        catch( InterruptedException e )
+                        else
                         {
-                            throw new OrphanedThread();
+                            m_computer.queueEvent( "task_complete", new Object[] { taskID, true } );
                         }
-                        catch( LuaException e )
+                    }
+                    catch( LuaException e )
+                    {
+                        m_computer.queueEvent( "task_complete", new Object[] {
+                            taskID, false, e.getMessage()
+                        } );
+                    }
+                    catch( Throwable t )
+                    {
+                        if( ComputerCraft.logPeripheralErrors )
                         {
-                            throw new LuaError( e.getMessage(), e.getLevel() );
+                            ComputerCraft.log.error( "Error running task", t );
                         }
-                        catch( Throwable t )
+                        m_computer.queueEvent( "task_complete", new Object[] {
+                            taskID, false, "Java Exception Thrown: " + t.toString()
+                        } );
+                    }
+                }
+            };
+            if( MainThread.queueTask( iTask ) )
+            {
+                return taskID;
+            }
+            else
+            {
+                throw new LuaException( "Task limit exceeded" );
+            }
+        }
+
+        @Override
+        public Object[] executeMainThreadTask( @Nonnull final ILuaTask task ) throws LuaException, InterruptedException
+        {
+            // Issue task
+            final long taskID = issueMainThreadTask( task );
+
+            // Wait for response
+            while( true )
+            {
+                Object[] response = pullEvent( "task_complete" );
+                if( response.length >= 3 && response[ 1 ] instanceof Number && response[ 2 ] instanceof Boolean )
+                {
+                    if( ((Number) response[ 1 ]).intValue() == taskID )
+                    {
+                        Object[] returnValues = new Object[ response.length - 3 ];
+                        if( (Boolean) response[ 2 ] )
                         {
-                            if( ComputerCraft.logPeripheralErrors )
+                            // Extract the return values from the event and return them
+                            System.arraycopy( response, 3, returnValues, 0, returnValues.length );
+                            return returnValues;
+                        }
+                        else
+                        {
+                            // Extract the error message from the event and raise it
+                            if( response.length >= 4 && response[ 3 ] instanceof String )
+                            {
+                                throw new LuaException( (String) response[ 3 ] );
+                            }
+                            else
                             {
-                                ComputerCraft.log.error( "Error calling " + methodName + " on " + apiObject, t );
+                                throw new LuaException();
                             }
-                            throw new LuaError( "Java Exception Thrown: " + t.toString(), 0 );
                         }
-                        return toValues( results );
                     }
-                } );
+                }
             }
         }
-        return table;
     }
 
     private LuaValue toValue( Object object, Map<Object, LuaValue> values )
@@ -507,6 +652,27 @@ public class CobaltLuaMachine implements ILuaMachine
             byte[] b = (byte[]) object;
             return valueOf( Arrays.copyOf( b, b.length ) );
         }
+        else if( object instanceof ByteBuffer )
+        {
+            // Writable heap buffers are wrapped without copying, so callers must not modify them afterwards. Read-only
+            // buffers do not expose their array, and so are always copied.
+            ByteBuffer buffer = (ByteBuffer) object;
+            if( buffer.hasArray() )
+            {
+                return LuaString.valueOf( buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining() );
+            }
+            else
+            {
+                byte[] b = new byte[ buffer.remaining() ];
+                buffer.duplicate().get( b );
+                return valueOf( b );
+            }
+        }
+        else if( object instanceof FrozenTable )
+        {
+            // Frozen tables have already been converted, so are copied rather than walked.
+            return ((FrozenTable) object).toLuaTable();
+        }
         else if( object instanceof Map )
         {
             // Table:
@@ -560,7 +726,7 @@ public class CobaltLuaMachine implements ILuaMachine
         return varargsOf( values );
     }
 
-    private static Object toObject( LuaValue value, Map<LuaValue, Object> objects )
+    static Object toObject( LuaValue value, Map<LuaValue, Object> objects )
     {
         switch( value.type() )
         {
@@ -635,7 +801,7 @@ public class CobaltLuaMachine implements ILuaMachine
         }
     }
 
-    private static Object[] toObjects( Varargs values, int startIdx )
+    static Object[] toObjects( Varargs values, int startIdx )
     {
         int count = values.count();
         Object[] objects = new Object[ count - startIdx + 1 ];
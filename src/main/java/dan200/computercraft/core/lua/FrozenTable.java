@@ -0,0 +1,255 @@
+/*
+ * This file is part of ComputerCraft - http://www.computercraft.info
+ * Copyright Daniel Ratcliffe, 2011-2017. Do not distribute without permission.
+ * Send enquiries to dratcliffe@gmail.com
+ */
+
+package dan200.computercraft.core.lua;
+
+import org.squiddev.cobalt.Constants;
+import org.squiddev.cobalt.LuaTable;
+import org.squiddev.cobalt.LuaValue;
+
+import javax.annotation.Nonnull;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+import static org.squiddev.cobalt.ValueFactory.valueOf;
+
+/**
+ * An immutable copy of a table, whose keys and values have already been converted to Lua values.
+ *
+ * This is used for objects which are handed to many computers, such as the payload of a modem message. The structure
+ * is walked once when it is frozen, and each computer then only needs to copy the converted values into a fresh
+ * {@link LuaTable}. Strings and numbers are immutable in Lua, and so are shared between every copy.
+ *
+ * For other Java code, this behaves as a read-only {@link Map} containing the same values as the original.
+ */
+public final class FrozenTable extends AbstractMap<Object, Object>
+{
+    /**
+     * The table's keys and values. Each entry is either a {@link LuaValue}, or a nested {@link FrozenTable}.
+     */
+    private final Object[] m_keys;
+    private final Object[] m_values;
+    private int m_size;
+
+    /**
+     * The number of entries which belong in the table's array part, used to size the table when it is created.
+     */
+    private int m_arraySize;
+
+    /**
+     * Whether this table refers to any table more than once (including itself). If not, we can skip tracking which
+     * tables we have already created when converting it.
+     */
+    private boolean m_shared;
+
+    private Set<Entry<Object, Object>> m_entries;
+
+    private FrozenTable( int capacity )
+    {
+        m_keys = new Object[ capacity ];
+        m_values = new Object[ capacity ];
+    }
+
+    /**
+     * Freeze an object if it is a table. Other values are returned unchanged, as are tables which contain values
+     * which cannot be frozen (such as {@link dan200.computercraft.api.lua.ILuaObject}s).
+     *
+     * The original object may be modified after it has been frozen, without affecting the frozen copy.
+     *
+     * @param object The object to freeze.
+     * @return The frozen table, or the original object.
+     */
+    public static Object freeze( Object object )
+    {
+        if( !(object instanceof Map) || object instanceof FrozenTable ) return object;
+
+        Freezer freezer = new Freezer();
+        FrozenTable table = freezer.freezeTable( (Map<?, ?>) object );
+        if( table == null ) return object;
+
+        table.m_shared = freezer.m_shared;
+        return table;
+    }
+
+    private static final class Freezer
+    {
+        /**
+         * Marks a value which cannot be frozen.
+         */
+        private static final Object UNSUPPORTED = new Object();
+
+        private final Map<Object, FrozenTable> m_tables = new IdentityHashMap<>();
+        private boolean m_shared;
+
+        FrozenTable freezeTable( Map<?, ?> map )
+        {
+            int capacity = map.size();
+            FrozenTable table = new FrozenTable( capacity );
+            m_tables.put( map, table );
+
+            for( Map.Entry<?, ?> entry : map.entrySet() )
+            {
+                // The map has been modified while we were reading it, so give up.
+                if( table.m_size == capacity ) return null;
+
+                Object key = freezeValue( entry.getKey() );
+                Object value = freezeValue( entry.getValue() );
+                if( key == UNSUPPORTED || value == UNSUPPORTED ) return null;
+                if( key == null || value == null ) continue;
+
+                table.m_keys[ table.m_size ] = key;
+                table.m_values[ table.m_size ] = value;
+                table.m_size++;
+
+                if( key instanceof LuaValue && ((LuaValue) key).type() == Constants.TINT )
+                {
+                    int index = ((LuaValue) key).toInteger();
+                    if( index >= 1 && index <= capacity ) table.m_arraySize++;
+                }
+            }
+
+            return table;
+        }
+
+        private Object freezeValue( Object object )
+        {
+            if( object == null )
+            {
+                return null;
+            }
+            else if( object instanceof Number )
+            {
+                return valueOf( ((Number) object).doubleValue() );
+            }
+            else if( object instanceof Boolean )
+            {
+                return valueOf( (Boolean) object );
+            }
+            else if( object instanceof String )
+            {
+                return valueOf( object.toString() );
+            }
+            else if( object instanceof byte[] )
+            {
+                byte[] b = (byte[]) object;
+                return valueOf( Arrays.copyOf( b, b.length ) );
+            }
+            else if( object instanceof ByteBuffer )
+            {
+                byte[] b = new byte[ ((ByteBuffer) object).remaining() ];
+                ((ByteBuffer) object).duplicate().get( b );
+                return valueOf( b );
+            }
+            else if( object instanceof Map )
+            {
+                FrozenTable table = m_tables.get( object );
+                if( table != null )
+                {
+                    m_shared = true;
+                    return table;
+                }
+
+                table = freezeTable( (Map<?, ?>) object );
+                return table == null ? UNSUPPORTED : table;
+            }
+            else
+            {
+                return UNSUPPORTED;
+            }
+        }
+    }
+
+    /**
+     * Create a new Lua table with the contents of this one.
+     *
+     * @return The new table.
+     */
+    LuaTable toLuaTable()
+    {
+        return toLuaTable( m_shared ? new IdentityHashMap<>() : null );
+    }
+
+    private LuaTable toLuaTable( Map<FrozenTable, LuaTable> tables )
+    {
+        LuaTable table = new LuaTable( m_arraySize, m_size - m_arraySize );
+        if( tables != null ) tables.put( this, table );
+
+        for( int i = 0; i < m_size; i++ )
+        {
+            table.rawset( toLuaValue( m_keys[ i ], tables ), toLuaValue( m_values[ i ], tables ) );
+        }
+        return table;
+    }
+
+    private static LuaValue toLuaValue( Object value, Map<FrozenTable, LuaTable> tables )
+    {
+        if( !(value instanceof FrozenTable) ) return (LuaValue) value;
+
+        FrozenTable table = (FrozenTable) value;
+        if( tables != null )
+        {
+            LuaTable existing = tables.get( table );
+            if( existing != null ) return existing;
+        }
+        return table.toLuaTable( tables );
+    }
+
+    private static Object toObject( Object value )
+    {
+        return value instanceof FrozenTable ? value : CobaltLuaMachine.toObject( (LuaValue) value, null );
+    }
+
+    // Map implementation
+
+    @Override
+    public int size()
+    {
+        return m_size;
+    }
+
+    @Nonnull
+    @Override
+    public Set<Entry<Object, Object>> entrySet()
+    {
+        Set<Entry<Object, Object>> entries = m_entries;
+        if( entries == null )
+        {
+            m_entries = entries = new AbstractSet<Entry<Object, Object>>()
+            {
+                @Nonnull
+                @Override
+                public Iterator<Entry<Object, Object>> iterator()
+                {
+                    return new Iterator<Entry<Object, Object>>()
+                    {
+                        private int m_index = 0;
+
+                        @Override
+                        public boolean hasNext()
+                        {
+                            return m_index < m_size;
+                        }
+
+                        @Override
+                        public Entry<Object, Object> next()
+                        {
+                            if( m_index >= m_size ) throw new NoSuchElementException();
+                            int index = m_index++;
+                            return new SimpleImmutableEntry<>( toObject( m_keys[ index ] ), toObject( m_values[ index ] ) );
+                        }
+                    };
+                }
+
+                @Override
+                public int size()
+                {
+                    return m_size;
+                }
+            };
+        }
+        return entries;
+    }
+}
@@ -19,7 +19,21 @@ public interface ILuaMachine
     void softAbort( String abortMessage );
     void hardAbort( String abortMessage );
     
+    /**
+     * Serialise the machine's state, so it can be resumed later with {@link #restoreState(InputStream)}.
+     *
+     * @param output The stream to write the state to
+     * @return Whether the state was saved. Machines which cannot persist their state should return {@code false},
+     * in which case the computer will be booted from scratch when it is next loaded.
+     */
     boolean saveState( OutputStream output );
+
+    /**
+     * Restore state previously written by {@link #saveState(OutputStream)}.
+     *
+     * @param input The stream to read the state from
+     * @return Whether the state was restored. If this returns {@code false}, the computer should be booted normally.
+     */
     boolean restoreState( InputStream input );
     
     boolean isFinished();
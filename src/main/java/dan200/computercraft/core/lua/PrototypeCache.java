@@ -0,0 +1,218 @@
+/*
+ * This file is part of ComputerCraft - http://www.computercraft.info
+ * Copyright Daniel Ratcliffe, 2011-2017. Do not distribute without permission.
+ * Send enquiries to dratcliffe@gmail.com
+ */
+
+package dan200.computercraft.core.lua;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import dan200.computercraft.ComputerCraft;
+import dan200.computercraft.api.filesystem.IMount;
+import org.squiddev.cobalt.LuaString;
+import org.squiddev.cobalt.LuaTable;
+import org.squiddev.cobalt.Prototype;
+import org.squiddev.cobalt.compiler.CompileException;
+import org.squiddev.cobalt.compiler.LoadState;
+import org.squiddev.cobalt.compiler.LuaC;
+import org.squiddev.cobalt.function.LuaFunction;
+import org.squiddev.cobalt.function.LuaInterpretedFunction;
+
+import javax.annotation.Nonnull;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A compiler which shares compiled {@link Prototype}s between every computer.
+ *
+ * Every computer loads the BIOS and the same ROM programs when it boots. Rather than compiling each of these once per
+ * computer, we key compiled code on a hash of its source and chunk name, so each file is only compiled once. Prototypes
+ * are immutable, so may be safely used by multiple Lua states at once.
+ *
+ * Only chunks whose name and contents match a file from the BIOS or ROM are cached. Anything else (such as a computer's
+ * own programs) is compiled as normal, so user code cannot push the ROM out of the cache.
+ */
+public final class PrototypeCache implements LoadState.LuaCompiler
+{
+    public static final PrototypeCache INSTANCE = new PrototypeCache();
+
+    /**
+     * The maximum total size of the source code we hold compiled prototypes for.
+     */
+    private static final long MAX_SOURCE_SIZE = 16 * 1024 * 1024;
+
+    private final Cache<HashCode, Entry> m_cache = CacheBuilder.newBuilder()
+        .maximumWeight( MAX_SOURCE_SIZE )
+        .weigher( ( HashCode key, Entry entry ) -> entry.size )
+        .recordStats()
+        .build();
+
+    /**
+     * The keys of every chunk which may be cached, registered with {@link #addSource(String, byte[])}.
+     */
+    private final Set<HashCode> m_sources = ConcurrentHashMap.newKeySet();
+
+    private PrototypeCache()
+    {
+    }
+
+    @Override
+    public LuaFunction load( InputStream stream, LuaString name, LuaTable env ) throws IOException, CompileException
+    {
+        return new LuaInterpretedFunction( compile( stream, name ), env );
+    }
+
+    /**
+     * Allow a chunk to be cached.
+     *
+     * @param name     The chunk's name, as passed to {@code load}.
+     * @param contents The chunk's source code.
+     */
+    public void addSource( @Nonnull String name, @Nonnull byte[] contents )
+    {
+        LuaString luaName = LuaString.valueOf( name );
+        m_sources.add( getKey( luaName.bytes, luaName.offset, luaName.length, contents ) );
+    }
+
+    /**
+     * Allow every file in a mount to be cached, when loaded under the name {@code loadfile} gives it.
+     *
+     * @param mount The mount to add, such as the ROM.
+     */
+    public void addMount( @Nonnull IMount mount )
+    {
+        addDirectory( mount, "" );
+    }
+
+    private void addDirectory( IMount mount, String path )
+    {
+        List<String> children = new ArrayList<>();
+        try
+        {
+            mount.list( path, children );
+        }
+        catch( IOException e )
+        {
+            ComputerCraft.log.warn( "Cannot list /" + path + " when caching the ROM", e );
+            return;
+        }
+
+        for( String name : children )
+        {
+            String child = path.isEmpty() ? name : path + "/" + name;
+            try
+            {
+                if( mount.isDirectory( child ) )
+                {
+                    addDirectory( mount, child );
+                }
+                else
+                {
+                    try( InputStream stream = mount.openForRead( child ) )
+                    {
+                        addSource( "@" + name, readText( stream ) );
+                    }
+                }
+            }
+            catch( IOException e )
+            {
+                ComputerCraft.log.warn( "Cannot read /" + child + " when caching the ROM", e );
+            }
+        }
+    }
+
+    /**
+     * Read a file in the same way as {@code loadfile}, so that we compute the same key it will. This reads it as text
+     * with {@link dan200.computercraft.core.apis.handles.EncodedInputHandle}'s {@code readAll}, which normalises line
+     * endings and drops the trailing newline, and then converts it to a Lua string as it is passed to {@code load}.
+     *
+     * @param stream The stream to read
+     * @return The bytes {@code load} will be given.
+     * @throws IOException If the file could not be read.
+     */
+    private static byte[] readText( InputStream stream ) throws IOException
+    {
+        BufferedReader reader = new BufferedReader( new InputStreamReader( stream, StandardCharsets.UTF_8 ) );
+        StringBuilder result = new StringBuilder();
+        String line = reader.readLine();
+        while( line != null )
+        {
+            result.append( line );
+            line = reader.readLine();
+            if( line != null ) result.append( '\n' );
+        }
+
+        LuaString contents = LuaString.valueOf( result.toString() );
+        return Arrays.copyOfRange( contents.bytes, contents.offset, contents.offset + contents.length );
+    }
+
+    private Prototype compile( InputStream stream, LuaString name ) throws IOException, CompileException
+    {
+        if( name.length == 0 || name.bytes[ name.offset ] != '@' ) return LuaC.compile( stream, name );
+
+        byte[] contents = ByteStreams.toByteArray( stream );
+        HashCode key = getKey( name.bytes, name.offset, name.length, contents );
+        if( !m_sources.contains( key ) ) return LuaC.compile( new ByteArrayInputStream( contents ), name );
+
+        Entry entry = m_cache.getIfPresent( key );
+        if( entry == null )
+        {
+            entry = new Entry( LuaC.compile( new ByteArrayInputStream( contents ), name ), contents.length );
+            m_cache.put( key, entry );
+        }
+
+        return entry.prototype;
+    }
+
+    private static HashCode getKey( byte[] name, int offset, int length, byte[] contents )
+    {
+        return Hashing.sha256().newHasher()
+            .putBytes( name, offset, length )
+            .putByte( (byte) 0 )
+            .putBytes( contents )
+            .hash();
+    }
+
+    /**
+     * Get hit and miss statistics for this cache.
+     *
+     * @return This cache's statistics.
+     */
+    @Nonnull
+    public CacheStats getStats()
+    {
+        return m_cache.stats();
+    }
+
+    /**
+     * Get the number of prototypes currently cached.
+     *
+     * @return The number of cached prototypes.
+     */
+    public long size()
+    {
+        return m_cache.size();
+    }
+
+    private static final class Entry
+    {
+        final Prototype prototype;
+        final int size;
+
+        Entry( Prototype prototype, int size )
+        {
+            this.prototype = prototype;
+            this.size = size;
+        }
+    }
+}
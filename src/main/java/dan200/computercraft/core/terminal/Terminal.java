@@ -29,6 +29,13 @@ public class Terminal
 
     private boolean m_changed;
 
+    /**
+     * The first and one past the last column of each row which has changed since {@link #clearDirty()} was last
+     * called. A row is unchanged when its start is not less than its end.
+     */
+    private int[] m_dirtyStart;
+    private int[] m_dirtyEnd;
+
     public Terminal( int width, int height )
     {
         m_width = width;
@@ -52,6 +59,9 @@ public class Terminal
         m_cursorBlink = false;
         
         m_changed = false;
+        m_dirtyStart = new int[ m_height ];
+        m_dirtyEnd = new int[ m_height ];
+        clearDirty();
 
         m_palette = new Palette();
     }
@@ -119,6 +129,9 @@ public class Terminal
                 m_backgroundColour[ i ].write( oldBackgroundColour[ i ] );
             }
         }
+        m_dirtyStart = new int[ m_height ];
+        m_dirtyEnd = new int[ m_height ];
+        markAllDirty();
         m_changed = true;
     }
     
@@ -198,6 +211,7 @@ public class Terminal
             m_text[ y ].write( text, x );
             m_textColour[ y ].write( textColour, x );
             m_backgroundColour[ y ].write( backgroundColour, x );
+            markDirty( y, x, x + text.length() );
             m_changed = true;
         }
     }
@@ -211,6 +225,7 @@ public class Terminal
             m_text[ y ].write( text, x );
             m_textColour[ y ].fill( base16.charAt( m_cursorColour ), x, x + text.length() );
             m_backgroundColour[ y ].fill( base16.charAt( m_cursorBackgroundColour ), x, x + text.length() );
+            markDirty( y, x, x + text.length() );
             m_changed = true;
         }
     }
@@ -241,6 +256,7 @@ public class Terminal
             m_text = newText;
             m_textColour = newTextColour;
             m_backgroundColour = newBackgroundColour;
+            markAllDirty();
             m_changed = true;
         }
     }
@@ -253,6 +269,7 @@ public class Terminal
             m_textColour[ y ].fill( base16.charAt( m_cursorColour ) );
             m_backgroundColour[ y ].fill( base16.charAt( m_cursorBackgroundColour ) );
         }
+        markAllDirty();
         m_changed = true;
     }
 
@@ -264,6 +281,7 @@ public class Terminal
             m_text[ y ].fill( ' ' );
             m_textColour[ y ].fill( base16.charAt( m_cursorColour ) );
             m_backgroundColour[ y ].fill( base16.charAt( m_cursorBackgroundColour ) );
+            markDirty( y, 0, m_width );
             m_changed = true;
         }
     }
@@ -282,6 +300,7 @@ public class Terminal
         m_text[y].write( text );
         m_textColour[y].write( textColour );
         m_backgroundColour[y].write( backgroundColour );
+        markDirty( y, 0, m_width );
         m_changed = true;
     }
     
@@ -318,6 +337,60 @@ public class Terminal
         m_changed = false;
     }
 
+    /**
+     * Get the first column of a row which has changed since the dirty state was last cleared.
+     *
+     * @param y The row to check
+     * @return The first changed column. This is not less than {@link #getDirtyEnd(int)} if the row is unchanged.
+     */
+    public int getDirtyStart( int y )
+    {
+        return y >= 0 && y < m_height ? m_dirtyStart[ y ] : m_width;
+    }
+
+    /**
+     * Get one past the last column of a row which has changed since the dirty state was last cleared.
+     *
+     * @param y The row to check
+     * @return One past the last changed column.
+     */
+    public int getDirtyEnd( int y )
+    {
+        return y >= 0 && y < m_height ? m_dirtyEnd[ y ] : 0;
+    }
+
+    /**
+     * Mark every row as unchanged. This is independent of {@link #clearChanged()}, so that the rows which need to be
+     * sent to clients can be tracked separately from whether the terminal needs to be redrawn.
+     */
+    public void clearDirty()
+    {
+        for( int y = 0; y < m_height; ++y )
+        {
+            m_dirtyStart[ y ] = m_width;
+            m_dirtyEnd[ y ] = 0;
+        }
+    }
+
+    private void markDirty( int y, int start, int end )
+    {
+        if( start < 0 ) start = 0;
+        if( end > m_width ) end = m_width;
+        if( start >= end ) return;
+
+        if( start < m_dirtyStart[ y ] ) m_dirtyStart[ y ] = start;
+        if( end > m_dirtyEnd[ y ] ) m_dirtyEnd[ y ] = end;
+    }
+
+    private void markAllDirty()
+    {
+        for( int y = 0; y < m_height; ++y )
+        {
+            m_dirtyStart[ y ] = 0;
+            m_dirtyEnd[ y ] = m_width;
+        }
+    }
+
     public NBTTagCompound writeToNBT( NBTTagCompound nbttagcompound )
     {
         nbttagcompound.setInteger( "term_cursorX", m_cursorX );
@@ -368,6 +441,7 @@ public class Terminal
         {
             m_palette.readFromNBT( nbttagcompound );
         }
+        markAllDirty();
         m_changed = true;
     }
 }
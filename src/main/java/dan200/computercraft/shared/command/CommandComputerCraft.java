@@ -1,12 +1,16 @@
 package dan200.computercraft.shared.command;
 
+import com.google.common.cache.CacheStats;
 import com.google.common.collect.Lists;
 import dan200.computercraft.ComputerCraft;
 import dan200.computercraft.api.peripheral.IPeripheral;
 import dan200.computercraft.core.computer.Computer;
 import dan200.computercraft.core.computer.ComputerTimeTracker;
+import dan200.computercraft.core.filesystem.WriteBehindOutputStream;
+import dan200.computercraft.core.lua.PrototypeCache;
 import dan200.computercraft.shared.command.framework.*;
 import dan200.computercraft.shared.computer.core.ServerComputer;
+import dan200.computercraft.shared.peripheral.modem.ModemPeripheral;
 import net.minecraft.command.CommandException;
 import net.minecraft.command.ICommandSender;
 import net.minecraft.entity.Entity;
@@ -20,6 +24,7 @@ import net.minecraftforge.common.util.FakePlayer;
 
 import javax.annotation.Nonnull;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 
 import static dan200.computercraft.shared.command.framework.ChatHelpers.*;
 
@@ -102,6 +107,14 @@ public final class CommandComputerCraft extends CommandDelegate
                     table.addRow( header( "On" ), bool( computer.isOn() ) );
                     table.addRow( header( "Position" ), linkPosition( context, computer ) );
                     table.addRow( header( "Family" ), text( computer.getFamily().toString() ) );
+                    if( computer.isOn() )
+                    {
+                        long idle = TimeUnit.NANOSECONDS.toSeconds( computer.getComputer().getIdleTime() );
+                        table.addRow( header( "Idle" ), text( idle + "s" ) );
+                    }
+                    table.addRow( header( "Dropped events" ), text( Long.toString( computer.getComputer().getDroppedEvents() ) ) );
+                    table.addRow( header( "Coalesced events" ), text( Long.toString( computer.getComputer().getCoalescedEvents() ) ) );
+                    table.addRow( header( "Allocated" ), text( String.format( "%.1f", computer.getComputer().getAllocated() / (1024.0 * 1024.0) ) + "MiB" ) );
 
                     for( int i = 0; i < 6; i++ )
                     {
@@ -257,8 +270,32 @@ public final class CommandComputerCraft extends CommandDelegate
             }
         } );
 
+        root.register( new SubCommandBase(
+            "stats", "Display runtime statistics.", UserLevel.OWNER_OP,
+            "Display statistics about shared computer resources, such as the compiled code cache and how many file " +
+                "writes were batched together."
+        )
+        {
+            @Override
+            public void execute( @Nonnull CommandContext context, @Nonnull List<String> arguments )
+            {
+                CacheStats compiled = PrototypeCache.INSTANCE.getStats();
+
+                TextTable table = new TextTable();
+                table.addRow( header( "Compiled chunks" ), text( Long.toString( PrototypeCache.INSTANCE.size() ) ) );
+                table.addRow( header( "Compile cache hits" ), text( Long.toString( compiled.hitCount() ) ) );
+                table.addRow( header( "Compile cache misses" ), text( Long.toString( compiled.missCount() ) ) );
+                table.addRow( header( "File writes" ), text( Long.toString( WriteBehindOutputStream.getWrites() ) ) );
+                table.addRow( header( "File system writes" ), text( Long.toString( WriteBehindOutputStream.getSystemWrites() ) ) );
+                table.addRow( header( "File syncs" ), text( Long.toString( WriteBehindOutputStream.getSyncs() ) ) );
+                table.addRow( header( "Dropped modem messages" ), text( Long.toString( ModemPeripheral.getDroppedPackets() ) ) );
+                table.displayTo( context.getSender() );
+            }
+        } );
+
         CommandRoot track = new CommandRoot( "track", "Track execution times for computers.",
-            "Track how long computers execute for, as well as how many events they handle. This presents information in " +
+            "Track how long computers execute for, as well as how many events they handle and how long those events " +
+                "wait before being run and how much memory they allocate. This presents information in " +
                 "a similar way to /forge track and can be useful for diagnosing lag." );
         root.register( track );
 
@@ -341,7 +378,7 @@ public final class CommandComputerCraft extends CommandDelegate
         if( timings.isEmpty() ) throw new CommandException( "No timings available" );
 
         timings.sort( Comparator.comparing( ComputerTimeTracker.Timings::getAverage ).reversed() );
-        TextTable table = new TextTable( "Computer", "Tasks", "Total", "Average", "Maximum" );
+        TextTable table = new TextTable( "Computer", "Tasks", "Total", "Average", "Maximum", "Wait p50", "Wait p99", "Allocated" );
 
         Map<Computer, ServerComputer> lookup = new HashMap<>();
         int maxId = 0, maxInstance = 0;
@@ -387,7 +424,10 @@ public final class CommandComputerCraft extends CommandDelegate
                 formatted( "%4d", entry.getTasks() ),
                 text( String.format( "%7.1f", entry.getTotalTime() / 1e6 ) + "ms" ),
                 text( String.format( "%4.1f", entry.getAverage() / 1e6 ) + "ms" ),
-                text( String.format( "%5.1f", entry.getMaxTime() / 1e6 ) + "ms" )
+                text( String.format( "%5.1f", entry.getMaxTime() / 1e6 ) + "ms" ),
+                text( String.format( "%4.1f", entry.getLatencyPercentile( 0.5 ) / 1e6 ) + "ms" ),
+                text( String.format( "%5.1f", entry.getLatencyPercentile( 0.99 ) / 1e6 ) + "ms" ),
+                text( String.format( "%6.1f", entry.getAllocated() / (1024.0 * 1024.0) ) + "MiB" )
             );
         }
 
@@ -7,7 +7,11 @@
 package dan200.computercraft.shared.common;
 
 import dan200.computercraft.core.terminal.Terminal;
+import dan200.computercraft.core.terminal.TextBuffer;
+import dan200.computercraft.shared.util.Palette;
+import io.netty.handler.codec.DecoderException;
 import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.network.PacketBuffer;
 
 public class ClientTerminal implements ITerminal
 {
@@ -68,6 +72,87 @@ public class ClientTerminal implements ITerminal
         }
     }
 
+    /**
+     * Read the whole terminal, as written by {@link ServerTerminal#writeTerminal(PacketBuffer)}.
+     *
+     * @param buffer The buffer to read from
+     */
+    public void readTerminal( PacketBuffer buffer )
+    {
+        m_colour = buffer.readBoolean();
+        if( buffer.readBoolean() )
+        {
+            readContents( buffer );
+        }
+        else
+        {
+            deleteTerminal();
+        }
+    }
+
+    /**
+     * Apply changes written by {@link ServerTerminal#writeDelta(PacketBuffer)}.
+     *
+     * @param buffer The buffer to read from
+     * @return Whether the changes could be applied. If not, the full terminal state must be requested from the server.
+     */
+    public boolean readDelta( PacketBuffer buffer )
+    {
+        if( m_terminal == null ) return false;
+        readContents( buffer );
+        return true;
+    }
+
+    private void readContents( PacketBuffer buffer )
+    {
+        resizeTerminal( buffer.readVarInt(), buffer.readVarInt() );
+        m_terminal.setCursorPos( buffer.readInt(), buffer.readInt() );
+        m_terminal.setCursorBlink( buffer.readBoolean() );
+        int colours = buffer.readUnsignedByte();
+        m_terminal.setTextColour( colours & 0xF );
+        m_terminal.setBackgroundColour( colours >> 4 );
+
+        if( buffer.readBoolean() )
+        {
+            Palette palette = m_terminal.getPalette();
+            for( int i = 0; i < 16; i++ )
+            {
+                double[] colour = Palette.decodeRGB8( buffer.readMedium() );
+                palette.setColour( i, colour[ 0 ], colour[ 1 ], colour[ 2 ] );
+            }
+        }
+
+        int rows = buffer.readVarInt();
+        for( int i = 0; i < rows; i++ )
+        {
+            int y = buffer.readVarInt();
+            int start = buffer.readVarInt();
+            String text = buffer.readString( Short.MAX_VALUE );
+
+            // Rows outside the terminal must still be read, so we stay in sync with the rest of the buffer.
+            boolean valid = y >= 0 && y < m_terminal.getHeight();
+            if( valid ) m_terminal.getLine( y ).write( text, start );
+            readRuns( buffer, valid ? m_terminal.getTextColourLine( y ) : null, start, text.length() );
+            readRuns( buffer, valid ? m_terminal.getBackgroundColourLine( y ) : null, start, text.length() );
+        }
+
+        m_terminal.setChanged();
+    }
+
+    private static void readRuns( PacketBuffer buffer, TextBuffer line, int start, int length )
+    {
+        int x = 0;
+        while( x < length )
+        {
+            int run = buffer.readVarInt();
+            char colour = (char) buffer.readVarInt();
+            if( run <= 0 ) throw new DecoderException( "Invalid colour run" );
+
+            if( line != null ) line.fill( colour, start + x, start + x + run );
+            x += run;
+        }
+    }
+
     private void resizeTerminal( int width, int height )
     {
         if( m_terminal == null )
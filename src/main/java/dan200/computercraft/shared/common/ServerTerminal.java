@@ -7,7 +7,12 @@
 package dan200.computercraft.shared.common;
 
 import dan200.computercraft.core.terminal.Terminal;
+import dan200.computercraft.core.terminal.TextBuffer;
+import dan200.computercraft.shared.util.Palette;
 import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.network.PacketBuffer;
+
+import java.util.Arrays;
 
 public class ServerTerminal implements ITerminal
 {
@@ -15,6 +20,7 @@ public class ServerTerminal implements ITerminal
     private Terminal m_terminal;
     private boolean m_terminalChanged;
     private boolean m_terminalChangedLastFrame;
+    private int[] m_sentPalette;
 
     public ServerTerminal( boolean colour )
     {
@@ -97,4 +103,108 @@ public class ServerTerminal implements ITerminal
             nbttagcompound.setTag( "terminal", terminal );
         }
     }
+
+    /**
+     * Write the whole terminal, for clients which have not been sent it before. This is read by
+     * {@link ClientTerminal#readTerminal(PacketBuffer)}.
+     *
+     * @param buffer The buffer to write to
+     */
+    public void writeTerminal( PacketBuffer buffer )
+    {
+        Terminal terminal = m_terminal;
+        buffer.writeBoolean( m_colour );
+        buffer.writeBoolean( terminal != null );
+        if( terminal != null )
+        {
+            synchronized( terminal )
+            {
+                writeContents( buffer, terminal, true );
+            }
+        }
+    }
+
+    /**
+     * Write the parts of the terminal which have changed since this was last called, and mark them as unchanged.
+     *
+     * Only the changed span of each row is sent, alongside the cursor and (if it has changed) the palette. This should
+     * only be used when a terminal exists, and is read by {@link ClientTerminal#readDelta(PacketBuffer)}.
+     *
+     * @param buffer The buffer to write to
+     */
+    public void writeDelta( PacketBuffer buffer )
+    {
+        Terminal terminal = m_terminal;
+        synchronized( terminal )
+        {
+            writeContents( buffer, terminal, false );
+            terminal.clearDirty();
+        }
+    }
+
+    private void writeContents( PacketBuffer buffer, Terminal terminal, boolean full )
+    {
+        int width = terminal.getWidth(), height = terminal.getHeight();
+        buffer.writeVarInt( width );
+        buffer.writeVarInt( height );
+        buffer.writeInt( terminal.getCursorX() );
+        buffer.writeInt( terminal.getCursorY() );
+        buffer.writeBoolean( terminal.getCursorBlink() );
+        buffer.writeByte( (terminal.getTextColour() & 0xF) | (terminal.getBackgroundColour() & 0xF) << 4 );
+
+        Palette palette = terminal.getPalette();
+        int[] colours = new int[ 16 ];
+        for( int i = 0; i < colours.length; i++ )
+        {
+            colours[ i ] = Palette.encodeRGB8( palette.getColour( i ) );
+        }
+        if( full || m_sentPalette == null || !Arrays.equals( colours, m_sentPalette ) )
+        {
+            buffer.writeBoolean( true );
+            for( int colour : colours ) buffer.writeMedium( colour );
+            if( !full ) m_sentPalette = colours;
+        }
+        else
+        {
+            buffer.writeBoolean( false );
+        }
+
+        int rows = 0;
+        for( int y = 0; y < height; y++ )
+        {
+            if( full || terminal.getDirtyStart( y ) < terminal.getDirtyEnd( y ) ) rows++;
+        }
+
+        buffer.writeVarInt( rows );
+        for( int y = 0; y < height; y++ )
+        {
+            int start = full ? 0 : terminal.getDirtyStart( y ), end = full ? width : terminal.getDirtyEnd( y );
+            if( start >= end ) continue;
+
+            buffer.writeVarInt( y );
+            buffer.writeVarInt( start );
+            buffer.writeString( terminal.getLine( y ).read( start, end ) );
+            writeRuns( buffer, terminal.getTextColourLine( y ), start, end );
+            writeRuns( buffer, terminal.getBackgroundColourLine( y ), start, end );
+        }
+    }
+
+    /**
+     * Write part of a colour row as a series of runs of the same colour. Rows are usually a single colour, so this is
+     * far smaller than writing each character.
+     */
+    private static void writeRuns( PacketBuffer buffer, TextBuffer line, int start, int end )
+    {
+        int x = start;
+        while( x < end )
+        {
+            char colour = line.charAt( x );
+            int run = 1;
+            while( x + run < end && line.charAt( x + run ) == colour ) run++;
+
+            buffer.writeVarInt( run );
+            buffer.writeVarInt( colour );
+            x += run;
+        }
+    }
 }
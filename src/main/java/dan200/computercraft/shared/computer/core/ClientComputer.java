@@ -12,8 +12,10 @@ import dan200.computercraft.shared.common.ClientTerminal;
 import dan200.computercraft.shared.network.ComputerCraftPacket;
 import dan200.computercraft.shared.network.INetworkedThing;
 import dan200.computercraft.shared.util.NBTUtil;
+import io.netty.buffer.Unpooled;
 import net.minecraft.entity.player.EntityPlayer;
 import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.network.PacketBuffer;
 
 public class ClientComputer extends ClientTerminal
     implements IComputer, INetworkedThing
@@ -29,6 +31,9 @@ public class ClientComputer extends ClientTerminal
 
     private boolean m_changedLastFrame;
 
+    private int m_terminalVersion;
+    private boolean m_terminalRequested;
+
     public ClientComputer( int instanceID )
     {
         super( false );
@@ -70,6 +75,15 @@ public class ClientComputer extends ClientTerminal
         ComputerCraft.sendToServer( packet );
     }
 
+    private void requestTerminalState()
+    {
+        // Request the full terminal from the server
+        ComputerCraftPacket packet = new ComputerCraftPacket();
+        packet.m_packetType = ComputerCraftPacket.RequestTerminalUpdate;
+        packet.m_dataInt = new int[] { getInstanceID() };
+        ComputerCraft.sendToServer( packet );
+    }
+
     // IComputer
 
     @Override
@@ -189,8 +203,25 @@ public class ClientComputer extends ClientTerminal
                 readComputerDescription( packet.m_dataNBT );
                 break;
             case ComputerCraftPacket.ComputerTerminalChanged:
-                readDescription( packet.m_dataNBT );
+                readTerminal( new PacketBuffer( Unpooled.wrappedBuffer( packet.m_dataByte[ 0 ] ) ) );
+                m_terminalVersion = packet.m_dataInt[ 1 ];
+                m_terminalRequested = false;
+                break;
+            case ComputerCraftPacket.ComputerTerminalDelta:
+            {
+                // Changes can only be applied on top of the previous version, otherwise we need to start again.
+                int version = packet.m_dataInt[ 1 ];
+                if( version == m_terminalVersion + 1 && readDelta( new PacketBuffer( Unpooled.wrappedBuffer( packet.m_dataByte[ 0 ] ) ) ) )
+                {
+                    m_terminalVersion = version;
+                }
+                else if( !m_terminalRequested )
+                {
+                    m_terminalRequested = true;
+                    requestTerminalState();
+                }
                 break;
+            }
         }
     }
 }
@@ -28,8 +28,13 @@ import net.minecraft.util.math.BlockPos;
 import net.minecraft.world.World;
 import net.minecraftforge.fml.common.FMLCommonHandler;
 import net.minecraftforge.fml.common.Loader;
+import net.minecraftforge.fml.common.network.internal.FMLProxyPacket;
 
 import java.io.InputStream;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.WeakHashMap;
 
 public class ServerComputer extends ServerTerminal
     implements IComputer, IComputerEnvironment, INetworkedThing
@@ -47,6 +52,27 @@ public class ServerComputer extends ServerTerminal
     private boolean m_changedLastFrame;
     private int m_ticksSincePing;
 
+    /**
+     * Players who have been sent the current computer state. This is cleared whenever the state changes, so players
+     * who come into range later are sent it too.
+     */
+    private final Set<EntityPlayer> m_stateViewers = Collections.newSetFromMap( new WeakHashMap<>() );
+
+    /**
+     * How often, in ticks, we look for players who have come into range and need to be sent the state, when it has not
+     * changed.
+     */
+    private static final int STATE_RESCAN_INTERVAL = 20;
+    private int m_stateRescanCooldown;
+
+    /**
+     * Players who have been sent the full terminal state, and so only need to be sent changes to it.
+     */
+    private final Set<EntityPlayer> m_terminalViewers = Collections.newSetFromMap( new WeakHashMap<>() );
+    private int m_terminalVersion;
+    private boolean m_terminalPending;
+    private int m_terminalCooldown;
+
     public ServerComputer( World world, int computerID, String label, int instanceID, ComputerFamily family, int terminalWidth, int terminalHeight )
     {
         super( family != ComputerFamily.Normal, terminalWidth, terminalHeight );
@@ -63,6 +89,9 @@ public class ServerComputer extends ServerTerminal
 
         m_changedLastFrame = false;
         m_ticksSincePing = 0;
+
+        // Spread rescans out, so computers do not all look for new players on the same tick.
+        m_stateRescanCooldown = instanceID % STATE_RESCAN_INTERVAL;
     }
 
     public ComputerFamily getFamily(){
@@ -108,6 +137,10 @@ public class ServerComputer extends ServerTerminal
         m_changedLastFrame = m_computer.pollAndResetChanged() || m_changed;
         m_changed = false;
 
+        // Terminal changes are held back until the cooldown expires, and then sent as one update.
+        if( hasTerminalChanged() ) m_terminalPending = true;
+        if( m_terminalCooldown > 0 ) m_terminalCooldown--;
+
         m_ticksSincePing++;
     }
 
@@ -157,49 +190,131 @@ public class ServerComputer extends ServerTerminal
     private ComputerCraftPacket createTerminalPacket() {
         ComputerCraftPacket packet = new ComputerCraftPacket();
         packet.m_packetType = ComputerCraftPacket.ComputerTerminalChanged;
-        packet.m_dataInt = new int[] { getInstanceID() };
-        packet.m_dataNBT = new NBTTagCompound();
-        writeDescription( packet.m_dataNBT );
+        packet.m_dataInt = new int[] { getInstanceID(), m_terminalVersion };
+        packet.m_dataWriter = this::writeTerminal;
         return packet;
     }
 
+    /**
+     * Encode the changes to the terminal since the last delta. This is encoded straight away, as writing the delta
+     * resets the terminal's record of what has changed.
+     *
+     * @return The encoded delta packet.
+     */
+    private FMLProxyPacket createTerminalDeltaPacket() {
+        // Clients use the version to check they have not missed any changes, and ask for the full state if so.
+        m_terminalVersion++;
+
+        ComputerCraftPacket packet = new ComputerCraftPacket();
+        packet.m_packetType = ComputerCraftPacket.ComputerTerminalDelta;
+        packet.m_dataInt = new int[] { getInstanceID(), m_terminalVersion };
+        packet.m_dataWriter = this::writeDelta;
+        return ComputerCraft.encode( packet );
+    }
+
     public void broadcastState(boolean force)
     {
+        FMLCommonHandler handler = FMLCommonHandler.instance();
+        if( handler == null ) return;
+        MinecraftServer server = handler.getMinecraftServerInstance();
+
+        boolean rescan = --m_stateRescanCooldown <= 0;
         if(hasOutputChanged() || force)
         {
-            // Send computer state to all clients
-            ComputerCraft.sendToAllPlayers( createComputerPacket() );
+            m_stateViewers.clear();
+            rescan = true;
+        }
+
+        if( rescan )
+        {
+            m_stateRescanCooldown = STATE_RESCAN_INTERVAL;
+
+            // Send computer state to clients which are near the computer, or can see its terminal, and do not have the
+            // current state yet.
+            FMLProxyPacket packet = null;
+            int range = server.getPlayerList().getEntityViewDistance();
+            for( EntityPlayerMP player : server.getPlayerList().getPlayers() )
+            {
+                if( !m_stateViewers.contains( player ) && (isInRange( player, range ) || canSeeTerminal( player )) )
+                {
+                    if( packet == null ) packet = ComputerCraft.encode( createComputerPacket() );
+                    ComputerCraft.sendToPlayer( player, packet );
+                    m_stateViewers.add( player );
+                }
+            }
         }
 
-        if( hasTerminalChanged() || force )
+        if( (m_terminalPending && m_terminalCooldown <= 0) || force )
         {
-            // Send terminal state to clients who are currently interacting with the computer.
-            FMLCommonHandler handler = FMLCommonHandler.instance();
-            if( handler != null )
+            m_terminalPending = false;
+            m_terminalCooldown = ComputerCraft.terminalUpdateInterval;
+
+            // Send terminal state to clients who can currently see the terminal. Players who already have the
+            // terminal only need what has changed, everyone else gets the whole thing.
+            FMLProxyPacket delta = getTerminal() != null ? createTerminalDeltaPacket() : null;
+            FMLProxyPacket full = null;
+            List<? extends EntityPlayer> players = m_world != null ? m_world.playerEntities : server.getPlayerList().getPlayers();
+            for( EntityPlayer player : players )
             {
-                ComputerCraftPacket packet = createTerminalPacket();
-                MinecraftServer server = handler.getMinecraftServerInstance();
-                for( EntityPlayerMP player : server.getPlayerList().getPlayers() )
+                if( !canSeeTerminal( player ) )
+                {
+                    m_terminalViewers.remove( player );
+                }
+                else if( delta != null && !force && m_terminalViewers.contains( player ) )
+                {
+                    ComputerCraft.sendToPlayer( player, delta );
+                }
+                else
                 {
-                    if( isInteracting( player ) )
-                    {
-                        ComputerCraft.sendToPlayer( player, packet );
-                    }
+                    if( full == null ) full = ComputerCraft.encode( createTerminalPacket() );
+                    ComputerCraft.sendToPlayer( player, full );
+                    m_terminalViewers.add( player );
                 }
             }
         }
     }
 
+    private boolean isInRange( EntityPlayer player, int range )
+    {
+        if( m_world == null || m_position == null ) return true;
+        return player.getEntityWorld() == m_world && player.getDistanceSq( m_position ) <= (double) range * range;
+    }
+
+    /**
+     * Determine whether a player can see this computer's terminal, and so should be sent any changes to it.
+     *
+     * @param player The player to check
+     * @return Whether the player can see the terminal.
+     */
+    protected boolean canSeeTerminal( EntityPlayer player )
+    {
+        return isInteracting( player );
+    }
+
+    /**
+     * Send the terminal (and the computer's state) to a player who has just started looking at it, unless they have
+     * been sent it already.
+     *
+     * @param player The player who can now see the terminal.
+     */
+    protected void addTerminalViewer( EntityPlayer player )
+    {
+        if( !m_stateViewers.contains( player ) ) sendComputerState( player );
+        if( !m_terminalViewers.contains( player ) ) sendTerminalState( player );
+    }
+
     public void sendComputerState( EntityPlayer player )
     {
         // Send state to client
         ComputerCraft.sendToPlayer( player, createComputerPacket() );
+        m_stateViewers.add( player );
     }
 
     public void sendTerminalState( EntityPlayer player )
     {
         // Send terminal state to client
         ComputerCraft.sendToPlayer( player, createTerminalPacket() );
+        m_terminalViewers.add( player );
     }
 
     public void broadcastDelete()
@@ -462,6 +577,12 @@ public class ServerComputer extends ServerTerminal
                 sendComputerState( sender );
                 break;
             }
+            case ComputerCraftPacket.RequestTerminalUpdate:
+            {
+                // A player has missed some changes to the terminal
+                if( canSeeTerminal( sender ) ) sendTerminalState( sender );
+                break;
+            }
         }
     }
 
@@ -31,10 +31,7 @@ public class ServerComputerRegistry extends ComputerRegistry<ServerComputer>
             else
             {
                 computer.update();
-                if( computer.hasTerminalChanged() || computer.hasOutputChanged() )
-                {
-                    computer.broadcastState(false);
-                }
+                computer.broadcastState(false);
             }
         }
     }
@@ -7,17 +7,45 @@
 package dan200.computercraft.shared.network;
 
 import io.netty.buffer.ByteBuf;
-import net.minecraft.nbt.CompressedStreamTools;
+import io.netty.buffer.Unpooled;
 import net.minecraft.nbt.NBTTagCompound;
 import net.minecraft.network.PacketBuffer;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.UnsupportedEncodingException;
- 
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A packet sent between the client and server.
+ *
+ * Packets are written in a compact binary format: counts and integers are variable length, and NBT is written
+ * uncompressed. Only payloads larger than {@link #COMPRESSION_THRESHOLD} are deflated, using a compressor which is
+ * reused by each thread.
+ *
+ * Large payloads can be given as a {@link #m_dataWriter}, which writes them straight into the packet rather than
+ * building a byte array first. The client receives them as the last entry of {@link #m_dataByte}.
+ */
 public class ComputerCraftPacket
 {
+    /**
+     * The version of the wire format, which must be bumped whenever it changes.
+     */
+    private static final int FORMAT_VERSION = 2;
+
+    private static final int COMPRESSION_THRESHOLD = 1024;
+    private static final int MAX_PAYLOAD_SIZE = 2 * 1024 * 1024;
+
+    private static final byte PAYLOAD_NONE = 0;
+    private static final byte PAYLOAD_RAW = 1;
+    private static final byte PAYLOAD_DEFLATED = 2;
+    private static final byte PAYLOAD_WRITTEN = 3;
+
+    private static final ThreadLocal<Deflater> s_deflater = ThreadLocal.withInitial( () -> new Deflater( Deflater.BEST_SPEED ) );
+    private static final ThreadLocal<Inflater> s_inflater = ThreadLocal.withInitial( Inflater::new );
+
     // Packet types
     // To server
     public static final byte TurnOn = 1;
@@ -27,12 +55,14 @@ public class ComputerCraftPacket
     public static final byte RequestComputerUpdate = 5;
     public static final byte SetLabel = 6;
     public static final byte RequestTileEntityUpdate = 9;
+    public static final byte RequestTerminalUpdate = 12;
 
     // To client
     public static final byte ComputerChanged = 7;
     public static final byte ComputerTerminalChanged = 8;
     public static final byte ComputerDeleted = 9;
     public static final byte PlayRecord = 10;
+    public static final byte ComputerTerminalDelta = 11;
 
     // Packet class
     public byte m_packetType;
@@ -40,6 +70,7 @@ public class ComputerCraftPacket
     public int[] m_dataInt;
     public byte[][] m_dataByte;
     public NBTTagCompound m_dataNBT;
+    public Consumer<PacketBuffer> m_dataWriter;
 
     public ComputerCraftPacket()
     {
@@ -48,56 +79,29 @@ public class ComputerCraftPacket
         m_dataInt = null;
         m_dataByte = null;
         m_dataNBT = null;
+        m_dataWriter = null;
     }
 
     public void toBytes( PacketBuffer buffer )
     {
+        buffer.writeByte( FORMAT_VERSION );
         buffer.writeByte( m_packetType );
-        if( m_dataString != null )
-        {
-            buffer.writeByte( m_dataString.length );
-        }
-        else
-        {
-            buffer.writeByte( 0 );
-        }
-        if( m_dataInt != null )
-        {
-            buffer.writeByte( m_dataInt.length );
-        }
-        else
-        {
-            buffer.writeByte( 0 );
-        }
-        if( m_dataByte != null )
-        {
-            buffer.writeInt( m_dataByte.length );
-        }
-        else
-        {
-            buffer.writeInt( 0 );
-        }
+        buffer.writeVarInt( m_dataString == null ? 0 : m_dataString.length );
+        buffer.writeVarInt( m_dataInt == null ? 0 : m_dataInt.length );
+        buffer.writeVarInt( (m_dataByte == null ? 0 : m_dataByte.length) + (m_dataWriter == null ? 0 : 1) );
         if( m_dataString != null )
         {
             for( String s : m_dataString )
             {
                 if( s != null )
                 {
-                    try
-                    {
-                        byte[] b = s.getBytes( "UTF-8" );
-                        buffer.writeBoolean( true );
-                        buffer.writeInt( b.length );
-                        buffer.writeBytes( b );
-                    }
-                    catch( UnsupportedEncodingException e )
-                    {
-                        buffer.writeBoolean( false );
-                    }
+                    byte[] b = s.getBytes( StandardCharsets.UTF_8 );
+                    buffer.writeVarInt( b.length + 1 );
+                    buffer.writeBytes( b );
                 }
                 else
                 {
-                    buffer.writeBoolean( false );
+                    buffer.writeVarInt( 0 );
                 }
             }
         }
@@ -105,52 +109,89 @@ public class ComputerCraftPacket
         {
             for( int i : m_dataInt )
             {
-                buffer.writeInt( i );
+                buffer.writeVarInt( i );
             }
         }
         if( m_dataByte != null )
         {
             for( byte[] bytes : m_dataByte )
             {
-                if( bytes != null )
+                if( bytes == null || bytes.length == 0 )
                 {
-                    buffer.writeInt( bytes.length );
-                    buffer.writeBytes( bytes );
+                    buffer.writeByte( PAYLOAD_NONE );
+                }
+                else if( bytes.length >= COMPRESSION_THRESHOLD && buffer.hasArray() )
+                {
+                    buffer.writeByte( PAYLOAD_DEFLATED );
+                    writeDeflated( buffer, bytes );
                 }
                 else
                 {
-                    buffer.writeInt( 0 );
+                    buffer.writeByte( PAYLOAD_RAW );
+                    buffer.writeVarInt( bytes.length );
+                    buffer.writeBytes( bytes );
                 }
             }
         }
-        if( m_dataNBT != null )
+        if( m_dataWriter != null )
         {
-            try
+            // We do not know the payload's length until it has been written, so use a fixed size length instead.
+            int flagIndex = buffer.writerIndex();
+            buffer.writeByte( PAYLOAD_WRITTEN );
+            int lengthIndex = buffer.writerIndex();
+            buffer.writeInt( 0 );
+            int start = buffer.writerIndex();
+            m_dataWriter.accept( buffer );
+
+            int length = buffer.writerIndex() - start;
+            if( length >= COMPRESSION_THRESHOLD && buffer.hasArray() )
             {
-                ByteArrayOutputStream bos = new ByteArrayOutputStream();
-                CompressedStreamTools.writeCompressed( m_dataNBT, bos );
-                byte[] bytes = bos.toByteArray();
-                buffer.writeBoolean( true );
-                buffer.writeInt( bytes.length );
-                buffer.writeBytes( bytes );
+                byte[] raw = new byte[ length ];
+                buffer.getBytes( start, raw );
+                buffer.writerIndex( flagIndex );
+                buffer.writeByte( PAYLOAD_DEFLATED );
+                writeDeflated( buffer, raw );
             }
-            catch( IOException e )
+            else
             {
-                buffer.writeBoolean( false );
+                buffer.setInt( lengthIndex, length );
+            }
+        }
+        if( m_dataNBT != null )
+        {
+            // Write the tag straight into the packet, only compressing it if it turns out to be large.
+            int flagIndex = buffer.writerIndex();
+            buffer.writeByte( PAYLOAD_RAW );
+            int start = buffer.writerIndex();
+            buffer.writeCompoundTag( m_dataNBT );
+
+            int length = buffer.writerIndex() - start;
+            if( length >= COMPRESSION_THRESHOLD && buffer.hasArray() )
+            {
+                byte[] raw = new byte[ length ];
+                buffer.getBytes( start, raw );
+                buffer.writerIndex( flagIndex );
+                buffer.writeByte( PAYLOAD_DEFLATED );
+                writeDeflated( buffer, raw );
             }
         }
         else
         {
-            buffer.writeBoolean( false );
+            buffer.writeByte( PAYLOAD_NONE );
         }
     }
 
-    public void fromBytes( ByteBuf buffer )
+    public void fromBytes( ByteBuf buf ) throws IOException
     {
+        PacketBuffer buffer = buf instanceof PacketBuffer ? (PacketBuffer) buf : new PacketBuffer( buf );
+
+        int version = buffer.readUnsignedByte();
+        if( version != FORMAT_VERSION ) throw new IOException( "Unsupported packet format " + version );
+
         m_packetType = buffer.readByte();
-        byte nString = buffer.readByte();
-        byte nInt = buffer.readByte();
-        int nByte = buffer.readInt();
+        int nString = buffer.readVarInt();
+        int nInt = buffer.readVarInt();
+        int nByte = buffer.readVarInt();
         if( nString == 0 )
         {
             m_dataString = null;
@@ -160,19 +201,11 @@ public class ComputerCraftPacket
             m_dataString = new String[ nString ];
             for( int k = 0; k < nString; k++ )
             {
-                if( buffer.readBoolean() )
+                int length = buffer.readVarInt() - 1;
+                if( length >= 0 )
                 {
-                    int len = buffer.readInt();
-                    byte[] b = new byte[len];
-                    buffer.readBytes( b );
-                    try
-                    {
-                        m_dataString[ k ] = new String( b, "UTF-8" );
-                    }
-                    catch( UnsupportedEncodingException e )
-                    {
-                        m_dataString[ k ] = null;
-                    }
+                    m_dataString[ k ] = buffer.toString( buffer.readerIndex(), length, StandardCharsets.UTF_8 );
+                    buffer.skipBytes( length );
                 }
             }
         }
@@ -185,7 +218,7 @@ public class ComputerCraftPacket
             m_dataInt = new int[ nInt ];
             for( int k = 0; k < nInt; k++ )
             {
-                m_dataInt[ k ] = buffer.readInt();
+                m_dataInt[ k ] = buffer.readVarInt();
             }
         }
         if( nByte == 0 )
@@ -197,34 +230,110 @@ public class ComputerCraftPacket
             m_dataByte = new byte[ nByte ][];
             for( int k = 0; k < nByte; k++ )
             {
-                int length = buffer.readInt();
-                if( length > 0 )
+                switch( buffer.readByte() )
                 {
-                    m_dataByte[ k ] = new byte[ length ];
-                    buffer.getBytes( buffer.readerIndex(), m_dataByte[ k ] );
+                    case PAYLOAD_NONE:
+                        break;
+                    case PAYLOAD_RAW:
+                        m_dataByte[ k ] = new byte[ checkLength( buffer.readVarInt() ) ];
+                        buffer.readBytes( m_dataByte[ k ] );
+                        break;
+                    case PAYLOAD_WRITTEN:
+                        m_dataByte[ k ] = new byte[ checkLength( buffer.readInt() ) ];
+                        buffer.readBytes( m_dataByte[ k ] );
+                        break;
+                    case PAYLOAD_DEFLATED:
+                        m_dataByte[ k ] = readDeflated( buffer );
+                        break;
+                    default:
+                        throw new IOException( "Malformed packet" );
                 }
             }
         }
-        boolean bNBT = buffer.readBoolean();
-        if( !bNBT )
+        switch( buffer.readByte() )
+        {
+            case PAYLOAD_NONE:
+                m_dataNBT = null;
+                break;
+            case PAYLOAD_RAW:
+                m_dataNBT = buffer.readCompoundTag();
+                break;
+            case PAYLOAD_DEFLATED:
+                m_dataNBT = new PacketBuffer( Unpooled.wrappedBuffer( readDeflated( buffer ) ) ).readCompoundTag();
+                break;
+            default:
+                throw new IOException( "Malformed packet" );
+        }
+    }
+
+    /**
+     * Compress a block of data directly into a (heap backed) buffer, prefixed with its original and compressed length.
+     */
+    private static void writeDeflated( PacketBuffer buffer, byte[] data )
+    {
+        Deflater deflater = s_deflater.get();
+        deflater.reset();
+        deflater.setInput( data );
+        deflater.finish();
+
+        buffer.writeVarInt( data.length );
+        int lengthIndex = buffer.writerIndex();
+        buffer.writeInt( 0 );
+
+        int compressed = 0;
+        while( !deflater.finished() )
+        {
+            buffer.ensureWritable( Math.max( 256, data.length / 4 ) );
+            int written = deflater.deflate( buffer.array(), buffer.arrayOffset() + buffer.writerIndex(), buffer.writableBytes() );
+            buffer.writerIndex( buffer.writerIndex() + written );
+            compressed += written;
+        }
+        buffer.setInt( lengthIndex, compressed );
+    }
+
+    private static byte[] readDeflated( PacketBuffer buffer ) throws IOException
+    {
+        int length = checkLength( buffer.readVarInt() );
+        int compressed = buffer.readInt();
+        if( compressed < 0 || compressed > buffer.readableBytes() ) throw new IOException( "Malformed packet" );
+
+        Inflater inflater = s_inflater.get();
+        inflater.reset();
+        if( buffer.hasArray() )
         {
-            m_dataNBT = null;
+            inflater.setInput( buffer.array(), buffer.arrayOffset() + buffer.readerIndex(), compressed );
         }
         else
         {
-            int byteLength = buffer.readInt();
-            byte[] bytes = new byte[ byteLength ];
-            buffer.getBytes( buffer.readerIndex(), bytes );
-            try
-            {
-                ByteArrayInputStream bis = new ByteArrayInputStream( bytes );
-                m_dataNBT = CompressedStreamTools.readCompressed( bis );
-            }
-            catch( IOException e )
+            byte[] input = new byte[ compressed ];
+            buffer.getBytes( buffer.readerIndex(), input );
+            inflater.setInput( input );
+        }
+        buffer.skipBytes( compressed );
+
+        byte[] data = new byte[ length ];
+        try
+        {
+            int read = 0;
+            while( read < length && !inflater.finished() )
             {
-                m_dataNBT = null;
+                int inflated = inflater.inflate( data, read, length - read );
+                if( inflated == 0 && (inflater.needsInput() || inflater.needsDictionary()) ) break;
+                read += inflated;
             }
+            if( read != length ) throw new IOException( "Malformed packet" );
+        }
+        catch( DataFormatException e )
+        {
+            throw new IOException( "Malformed packet", e );
         }
+        return data;
+    }
+
+    private static int checkLength( int length ) throws IOException
+    {
+        if( length < 0 || length > MAX_PAYLOAD_SIZE ) throw new IOException( "Packet payload too large" );
+        return length;
     }
 
     /**
@@ -232,6 +341,6 @@ public class ComputerCraftPacket
      * target.
      */
     public boolean requiresContainer() {
-        return m_packetType != RequestComputerUpdate && m_packetType != RequestTileEntityUpdate;
+        return m_packetType != RequestComputerUpdate && m_packetType != RequestTileEntityUpdate && m_packetType != RequestTerminalUpdate;
     }
 }
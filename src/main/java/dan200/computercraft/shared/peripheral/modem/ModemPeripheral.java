@@ -14,25 +14,55 @@ import dan200.computercraft.api.network.IPacketSender;
 import dan200.computercraft.api.network.Packet;
 import dan200.computercraft.api.peripheral.IComputerAccess;
 import dan200.computercraft.api.peripheral.IPeripheral;
+import dan200.computercraft.core.computer.Computer;
+import dan200.computercraft.core.lua.FrozenTable;
 import gnu.trove.set.TIntSet;
 import gnu.trove.set.hash.TIntHashSet;
 import net.minecraft.util.math.Vec3d;
 import net.minecraft.world.World;
 
 import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
 
+import static dan200.computercraft.core.apis.ArgumentHelper.getBoolean;
 import static dan200.computercraft.core.apis.ArgumentHelper.getInt;
 
 public abstract class ModemPeripheral
     implements IPeripheral, IPacketSender, IPacketReceiver
 {
-    private IPacketNetwork m_network;
+    /**
+     * Modems which have received packets since the last call to {@link #flushPending()}.
+     */
+    private static final Queue<ModemPeripheral> s_pending = new ConcurrentLinkedQueue<>();
+
+    /**
+     * The maximum number of packets a modem holds between flushes. This matches the limit on a computer's event queue,
+     * which bounded the backlog when each packet was queued as its own event.
+     */
+    private static final int INBOX_LIMIT = Computer.EVENT_LIMIT;
+
+    private static final AtomicLong s_dropped = new AtomicLong();
+
+    private volatile IPacketNetwork m_network;
     private IComputerAccess m_computer;
     private final TIntSet m_channels;
 
     private boolean m_open;
     private boolean m_changed;
 
+    /**
+     * Packets received since the last flush, as the arguments to their {@code modem_message} event. This is guarded by
+     * {@link #m_channels}.
+     */
+    private List<Object[]> m_inbox = new ArrayList<>();
+    private boolean m_batched;
+
     public ModemPeripheral()
     {
         m_network = null;
@@ -44,25 +74,42 @@ public abstract class ModemPeripheral
 
     private synchronized void setNetwork( IPacketNetwork network )
     {
-        if( m_network != network )
+        // Hold the channel lock, so channels opened while we switch are registered with the new network.
+        synchronized( m_channels )
         {
-            // Leave old network
-            if( m_network != null )
+            if( m_network != network )
             {
-                m_network.removeReceiver( this );
-            }
+                // Leave old network
+                if( m_network != null )
+                {
+                    m_network.removeReceiver( this );
+                }
 
-            // Set new network
-            m_network = network;
+                // Set new network
+                m_network = network;
 
-            // Join new network
-            if( m_network != null )
-            {
-                m_network.addReceiver( this );
+                // Join new network
+                if( m_network != null )
+                {
+                    m_network.addReceiver( this );
+                    updateChannels();
+                }
             }
         }
     }
 
+    /**
+     * Tell the network which channels are open, so we are only sent packets on those channels. This should be called
+     * while holding the {@link #m_channels} lock, whenever the open channels or network change.
+     */
+    private void updateChannels()
+    {
+        if( m_network instanceof WirelessNetwork )
+        {
+            ((WirelessNetwork) m_network).setChannels( this, m_channels.toArray() );
+        }
+    }
+
     protected void switchNetwork()
     {
         setNetwork( getNetwork() );
@@ -71,7 +118,10 @@ public abstract class ModemPeripheral
     public synchronized void destroy()
     {
         setNetwork( null );
-        m_channels.clear();
+        synchronized( m_channels )
+        {
+            m_channels.clear();
+        }
         m_open = false;
     }
     
@@ -99,8 +149,8 @@ public abstract class ModemPeripheral
         {
             if( m_computer != null && m_channels.contains( packet.getChannel() ) )
             {
-                m_computer.queueEvent( "modem_message", new Object[] {
-                    m_computer.getAttachmentName(), packet.getChannel(), packet.getReplyChannel(), packet.getPayload(), distance
+                enqueue( new Object[] {
+                    null, packet.getChannel(), packet.getReplyChannel(), packet.getPayload(), distance
                 } );
             }
         }
@@ -115,13 +165,96 @@ public abstract class ModemPeripheral
         {
             if( m_computer != null && m_channels.contains( packet.getChannel() ) )
             {
-                m_computer.queueEvent( "modem_message", new Object[] {
-                    m_computer.getAttachmentName(), packet.getChannel(), packet.getReplyChannel(), packet.getPayload()
+                enqueue( new Object[] {
+                    null, packet.getChannel(), packet.getReplyChannel(), packet.getPayload()
                 } );
             }
         }
     }
 
+    /**
+     * Add a packet to this modem's inbox, to be delivered on the next tick. This must be called while holding the
+     * {@link #m_channels} lock.
+     *
+     * @param arguments The arguments to the {@code modem_message} event. The first argument is filled in with the
+     *                  modem's name when the event is queued.
+     */
+    private void enqueue( Object[] arguments )
+    {
+        if( m_inbox.size() >= INBOX_LIMIT )
+        {
+            s_dropped.incrementAndGet();
+            return;
+        }
+
+        if( m_inbox.isEmpty() ) s_pending.add( this );
+        m_inbox.add( arguments );
+    }
+
+    /**
+     * Queue events on the attached computer for every packet received since the last flush.
+     */
+    private void flush()
+    {
+        synchronized( m_channels )
+        {
+            List<Object[]> inbox = m_inbox;
+            if( inbox.isEmpty() ) return;
+            m_inbox = new ArrayList<>();
+
+            IComputerAccess computer = m_computer;
+            if( computer == null ) return;
+
+            String name = computer.getAttachmentName();
+            if( m_batched )
+            {
+                Map<Object, Object> messages = new HashMap<>( inbox.size() * 2 );
+                for( int i = 0; i < inbox.size(); i++ )
+                {
+                    Object[] arguments = inbox.get( i );
+                    Map<Object, Object> message = new HashMap<>( 8 );
+                    message.put( "channel", arguments[ 1 ] );
+                    message.put( "replyChannel", arguments[ 2 ] );
+                    message.put( "message", arguments[ 3 ] );
+                    if( arguments.length > 4 ) message.put( "distance", arguments[ 4 ] );
+                    messages.put( i + 1, message );
+                }
+                computer.queueEvent( "modem_batch", new Object[] { name, messages } );
+            }
+            else
+            {
+                for( Object[] arguments : inbox )
+                {
+                    arguments[ 0 ] = name;
+                    computer.queueEvent( "modem_message", arguments );
+                }
+            }
+        }
+    }
+
+    /**
+     * Deliver every packet received by a modem since the last call. This should be called once per server tick.
+     *
+     * Packets are gathered here rather than queued as soon as they arrive, so a computer which receives many packets
+     * in one tick is woken once to handle all of them, and can choose to receive them as a single
+     * {@code modem_batch} event.
+     */
+    public static void flushPending()
+    {
+        ModemPeripheral modem;
+        while( (modem = s_pending.poll()) != null ) modem.flush();
+    }
+
+    /**
+     * Get the number of packets which were dropped because a modem's inbox was full.
+     *
+     * @return The number of dropped packets.
+     */
+    public static long getDroppedPackets()
+    {
+        return s_dropped.get();
+    }
+
     protected abstract IPacketNetwork getNetwork();
     
     // IPeripheral implementation
@@ -144,6 +277,7 @@ public abstract class ModemPeripheral
             "closeAll",
             "transmit",
             "isWireless",
+            "setBatched",
         };
     }
     
@@ -168,19 +302,22 @@ public abstract class ModemPeripheral
                 int channel = parseChannel( arguments, 0 );
                 synchronized( this )
                 {
-                    if( !m_channels.contains( channel ) )
+                    synchronized( m_channels )
                     {
+                        if( m_channels.contains( channel ) ) return null;
                         if( m_channels.size() >= 128 )
                         {
                             throw new LuaException( "Too many open channels" );
                         }
 
                         m_channels.add( channel );
-                        if( !m_open )
-                        {
-                            m_open = true;
-                            m_changed = true;
-                        }
+                        updateChannels();
+                    }
+
+                    if( !m_open )
+                    {
+                        m_open = true;
+                        m_changed = true;
                     }
                 }
                 return null;
@@ -189,7 +326,7 @@ public abstract class ModemPeripheral
             {
                 // isOpen
                 int channel = parseChannel( arguments, 0 );
-                synchronized( this )
+                synchronized( m_channels )
                 {
                     boolean open = m_channels.contains( channel );
                     return new Object[] { open };
@@ -201,13 +338,18 @@ public abstract class ModemPeripheral
                 int channel = parseChannel( arguments, 0 );
                 synchronized( this )
                 {
-                    if( m_channels.remove( channel ) )
+                    boolean empty;
+                    synchronized( m_channels )
                     {
-                        if( m_channels.size() == 0 )
-                        {
-                            m_open = false;
-                            m_changed = true;
-                        }
+                        if( !m_channels.remove( channel ) ) return null;
+                        updateChannels();
+                        empty = m_channels.isEmpty();
+                    }
+
+                    if( empty )
+                    {
+                        m_open = false;
+                        m_changed = true;
                     }
                 }
                 return null;
@@ -217,15 +359,17 @@ public abstract class ModemPeripheral
                 // closeAll
                 synchronized( this )
                 {
-                    if( m_channels.size() > 0 )
+                    synchronized( m_channels )
                     {
+                        if( m_channels.isEmpty() ) return null;
                         m_channels.clear();
-                        
-                        if( m_open )
-                        {
-                            m_open = false;
-                            m_changed = true;
-                        }
+                        updateChannels();
+                    }
+
+                    if( m_open )
+                    {
+                        m_open = false;
+                        m_changed = true;
                     }
                 }
                 return null;
@@ -235,7 +379,8 @@ public abstract class ModemPeripheral
                 // transmit
                 int channel = parseChannel( arguments, 0 );
                 int replyChannel = parseChannel( arguments, 1 );
-                Object payload = (arguments.length >= 3) ? arguments[2] : null;
+                // Freeze the payload now, so it is only converted once however many computers receive it.
+                Object payload = FrozenTable.freeze( (arguments.length >= 3) ? arguments[2] : null );
                 synchronized( this )
                 {
                     World world = getWorld();
@@ -267,6 +412,16 @@ public abstract class ModemPeripheral
                 }
                 return new Object[] { false };
             }
+            case 6:
+            {
+                // setBatched
+                boolean batched = getBoolean( arguments, 0 );
+                synchronized( m_channels )
+                {
+                    m_batched = batched;
+                }
+                return null;
+            }
             default:
             {
                 return null;
@@ -279,20 +434,25 @@ public abstract class ModemPeripheral
     {
         m_computer = computer;
         setNetwork( getNetwork() );
-        m_open = !m_channels.isEmpty();
+        synchronized( m_channels )
+        {
+            m_open = !m_channels.isEmpty();
+        }
     }
     
     @Override
     public synchronized void detach( @Nonnull IComputerAccess computer )
     {
-        if( m_network != null )
+        setNetwork( null );
+
+        // Take the channel lock, so we never queue events on a computer once it has been detached.
+        synchronized( m_channels )
         {
-            m_network.removeReceiver( this );
             m_channels.clear();
-            m_network = null;
+            m_inbox.clear();
+            m_batched = false;
+            m_computer = null;
         }
-
-        m_computer = null;
             
         if( m_open )
         {
@@ -11,6 +11,7 @@ import dan200.computercraft.ComputerCraft;
 import dan200.computercraft.api.filesystem.IMount;
 import dan200.computercraft.api.filesystem.IWritableMount;
 import dan200.computercraft.api.lua.ILuaContext;
+import dan200.computercraft.api.lua.ILuaObject;
 import dan200.computercraft.api.lua.LuaException;
 import dan200.computercraft.api.network.IPacketNetwork;
 import dan200.computercraft.api.network.IPacketReceiver;
@@ -24,6 +25,7 @@ import dan200.computercraft.shared.peripheral.common.BlockCableModemVariant;
 import dan200.computercraft.shared.peripheral.common.PeripheralItemFactory;
 import dan200.computercraft.shared.util.IDAssigner;
 import dan200.computercraft.shared.util.PeripheralUtil;
+import gnu.trove.list.array.TIntArrayList;
 import net.minecraft.block.state.IBlockState;
 import net.minecraft.entity.player.EntityPlayer;
 import net.minecraft.item.ItemStack;
@@ -109,13 +111,14 @@ public class TileCable extends TileModemBase
         public String[] getMethodNames()
         {
             String[] methods = super.getMethodNames();
-            String[] newMethods = new String[ methods.length + 5 ];
+            String[] newMethods = new String[ methods.length + 6 ];
             System.arraycopy( methods, 0, newMethods, 0, methods.length );
             newMethods[ methods.length ] = "getNamesRemote";
             newMethods[ methods.length + 1 ] = "isPresentRemote";
             newMethods[ methods.length + 2 ] = "getTypeRemote";
             newMethods[ methods.length + 3 ] = "getMethodsRemote";
             newMethods[ methods.length + 4 ] = "callRemote";
+            newMethods[ methods.length + 5 ] = "wrapRemote";
             return newMethods;
         }
 
@@ -178,6 +181,16 @@ public class TileCable extends TileModemBase
                     System.arraycopy( arguments, 2, methodArgs, 0, arguments.length - 2 );
                     return m_entity.callMethodRemote( remoteName, context, methodName, methodArgs );
                 }
+                case 5:
+                {
+                    // wrapRemote
+                    ILuaObject wrapper = m_entity.wrapRemote( getString( arguments, 0 ) );
+                    if( wrapper != null )
+                    {
+                        return new Object[] { wrapper };
+                    }
+                    return null;
+                }
                 default:
                 {
                     // The regular modem methods
@@ -230,6 +243,12 @@ public class TileCable extends TileModemBase
 
     private static int s_nextUniqueSearchID = 1;
 
+    /**
+     * Incremented whenever a cable is loaded or unloaded, so that cached searches which may have missed a cable (or
+     * include a stale one) are redone.
+     */
+    private static int s_cableGeneration = 0;
+
     // Members
 
     private final Set<IPacketReceiver> m_receivers;
@@ -245,6 +264,14 @@ public class TileCable extends TileModemBase
     
     private int m_lastSearchID;
 
+    /**
+     * Every cable reachable from this one, and how far away each is. This is built when first needed, and discarded
+     * whenever {@link #networkChanged()} finds this cable, or any cable is loaded or unloaded.
+     */
+    private TileCable[] m_reachable;
+    private int[] m_reachableDistances;
+    private int m_reachableGeneration;
+
     private boolean m_hasDirection = false;
     
     public TileCable()
@@ -279,6 +306,21 @@ public class TileCable extends TileModemBase
     {
         super.onLoad();
         updateDirection();
+        s_cableGeneration++;
+    }
+
+    @Override
+    public void onChunkUnload()
+    {
+        super.onChunkUnload();
+        s_cableGeneration++;
+    }
+
+    @Override
+    public void invalidate()
+    {
+        super.invalidate();
+        s_cableGeneration++;
     }
 
     @Override
@@ -690,6 +732,14 @@ public class TileCable extends TileModemBase
         return null;
     }
     
+    private ILuaObject wrapRemote( String remoteName )
+    {
+        synchronized( m_peripheralsByName )
+        {
+            return m_peripheralWrappersByName.get( remoteName );
+        }
+    }
+
     private Object[] callMethodRemote( String remoteName, ILuaContext context, String method, Object[] arguments ) throws LuaException, InterruptedException
     {
         RemotePeripheralWrapper wrapper;
@@ -713,6 +763,7 @@ public class TileCable extends TileModemBase
                 // If this modem is alive, rebuild the network
                 searchNetwork( ( modem, distance ) ->
                 {
+                    modem.m_reachable = null;
                     synchronized( modem.m_peripheralsByName )
                     {
                         modem.m_peripheralsKnown = false;
@@ -780,13 +831,45 @@ public class TileCable extends TileModemBase
         
     private void dispatchPacket( final PacketWrapper packet )
     {
-        searchNetwork( ( modem, distance ) ->
+        TileCable[] modems = getReachable();
+        int[] distances = m_reachableDistances;
+        for( int i = 0; i < modems.length; i++ )
         {
-            if( distance <= packet.m_range)
+            if( distances[ i ] <= packet.m_range )
             {
-                modem.receivePacket( packet.m_packet, distance );
+                modems[ i ].receivePacket( packet.m_packet, distances[ i ] );
             }
-        } );
+        }
+    }
+
+    /**
+     * Get every cable reachable from this one, searching the network if it has changed since we last looked.
+     *
+     * The distance to each cable is stored in {@link #m_reachableDistances}.
+     *
+     * @return The reachable cables, including this one.
+     */
+    private TileCable[] getReachable()
+    {
+        // Cables may have been loaded into (or unloaded from) the network since we last searched it, so search again
+        // to find them.
+        TileCable[] reachable = m_reachable;
+        if( reachable == null || m_reachableGeneration != s_cableGeneration )
+        {
+            final List<TileCable> modems = new ArrayList<>();
+            final TIntArrayList distances = new TIntArrayList();
+            searchNetwork( ( modem, distance ) ->
+            {
+                modems.add( modem );
+                distances.add( distance );
+            } );
+
+            m_reachable = reachable = modems.toArray( new TileCable[ modems.size() ] );
+            m_reachableDistances = distances.toArray();
+            m_reachableGeneration = s_cableGeneration;
+        }
+
+        return reachable;
     }
     
     private void receivePacket( Packet packet, int distanceTravelled )
@@ -802,7 +885,13 @@ public class TileCable extends TileModemBase
     
     // Remote peripheral control
     
-    private static class RemotePeripheralWrapper implements IComputerAccess
+    /**
+     * A peripheral on the network, as seen by the computer attached to this modem.
+     *
+     * This is also handed to the computer by {@code wrapRemote}, so repeated calls go straight to the peripheral
+     * without looking it up by name each time. Once the peripheral is detached, any further calls will fail.
+     */
+    private static class RemotePeripheralWrapper implements IComputerAccess, ILuaObject
     {
         private IPeripheral m_peripheral;
         private IComputerAccess m_computer;
@@ -811,6 +900,8 @@ public class TileCable extends TileModemBase
         private String m_type;
         private String[] m_methods;
         private Map<String, Integer> m_methodMap;
+
+        private volatile boolean m_attached;
                 
         public RemotePeripheralWrapper( IPeripheral peripheral, IComputerAccess computer, String name )
         {
@@ -833,12 +924,14 @@ public class TileCable extends TileModemBase
         
         public void attach()
         {
+            m_attached = true;
             m_peripheral.attach( this );
             m_computer.queueEvent( "peripheral", new Object[] { getAttachmentName() } );
         }
 
         public void detach()
         {
+            m_attached = false;
             m_peripheral.detach( this );
             m_computer.queueEvent( "peripheral_detach", new Object[] { getAttachmentName() } );
         }
@@ -848,6 +941,8 @@ public class TileCable extends TileModemBase
             return m_type;
         }
 
+        @Nonnull
+        @Override
         public String[] getMethodNames()
         {
             return m_methods;
@@ -855,14 +950,26 @@ public class TileCable extends TileModemBase
 
         public Object[] callMethod( ILuaContext context, String methodName, Object[] arguments ) throws LuaException, InterruptedException
         {
-            if( m_methodMap.containsKey( methodName ) )
+            Integer method = m_methodMap.get( methodName );
+            if( method != null )
             {
-                int method = m_methodMap.get( methodName );
-                return m_peripheral.callMethod( this, context, method, arguments );
+                return callMethod( context, method, arguments );
             }
             throw new LuaException( "No such method " + methodName );
         }
 
+        // ILuaObject implementation
+
+        @Override
+        public Object[] callMethod( @Nonnull ILuaContext context, int method, @Nonnull Object[] arguments ) throws LuaException, InterruptedException
+        {
+            if( !m_attached )
+            {
+                throw new LuaException( "Peripheral " + m_name + " is no longer attached" );
+            }
+            return m_peripheral.callMethod( this, context, method, arguments );
+        }
+
         // IComputerAccess implementation
 
         @Override
@@ -924,18 +1031,18 @@ public class TileCable extends TileModemBase
             final Map<String, IPeripheral> newPeripheralsByName = new HashMap<>();
             if( getPeripheralType() == PeripheralType.WiredModemWithCable )
             {
-                searchNetwork( ( modem, distance ) ->
-                {
-                if( modem != origin )
+                for( TileCable modem : getReachable() )
                 {
-                    IPeripheral peripheral = modem.getConnectedPeripheral();
-                    String periphName = modem.getConnectedPeripheralName();
-                    if( peripheral != null && periphName != null )
+                    if( modem != origin )
                     {
-                        newPeripheralsByName.put( periphName, peripheral );
+                        IPeripheral peripheral = modem.getConnectedPeripheral();
+                        String periphName = modem.getConnectedPeripheralName();
+                        if( peripheral != null && periphName != null )
+                        {
+                            newPeripheralsByName.put( periphName, peripheral );
+                        }
                     }
                 }
-                } );
             }
             //System.out.println( newPeripheralsByName.size()+" peripherals discovered" );
 
@@ -1078,7 +1185,7 @@ public class TileCable extends TileModemBase
     private void searchNetwork( ICableVisitor visitor )
     {
         int searchID = ++s_nextUniqueSearchID;
-        Queue<SearchLoc> queue = new LinkedList<>();
+        Queue<SearchLoc> queue = new ArrayDeque<>();
         enqueue( queue, getWorld(), getPos(), 1 );
         
         //int visited = 0;
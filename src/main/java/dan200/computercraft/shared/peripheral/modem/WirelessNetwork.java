@@ -12,10 +12,22 @@ import dan200.computercraft.api.network.IPacketReceiver;
 import dan200.computercraft.api.network.IPacketSender;
 import dan200.computercraft.api.network.Packet;
 
+import net.minecraft.util.math.Vec3d;
+import net.minecraft.world.World;
+import org.apache.commons.lang3.ArrayUtils;
+
 import javax.annotation.Nonnull;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
+/**
+ * The network shared by all wireless and ender modems.
+ *
+ * Modems are indexed by the channels they have open, so a packet is only offered to receivers which are listening on
+ * its channel. The index is copy-on-write, so computers can transmit at the same time without contending on a lock.
+ */
 public class WirelessNetwork implements IPacketNetwork
 {
     private static WirelessNetwork s_universalNetwork = null;
@@ -34,54 +46,143 @@ public class WirelessNetwork implements IPacketNetwork
         s_universalNetwork = null;
     }
 
-    private final Set<IPacketReceiver> m_receivers;
+    private static final IPacketReceiver[] NO_RECEIVERS = new IPacketReceiver[ 0 ];
+    private static final int[] NO_CHANNELS = new int[ 0 ];
+
+    /**
+     * Receivers which tell us the channels they are listening on, mapped to those channels. This is only accessed
+     * while holding the network's lock.
+     */
+    private final Map<IPacketReceiver, int[]> m_listeners = new HashMap<>();
+
+    /**
+     * The receivers listening on each channel. Arrays are replaced rather than modified, so packets can be
+     * transmitted without taking the lock.
+     */
+    private final ConcurrentMap<Integer, IPacketReceiver[]> m_channels = new ConcurrentHashMap<>();
+
+    /**
+     * Receivers which do not tell us what they are listening on, and so must be offered every packet.
+     */
+    private volatile IPacketReceiver[] m_others = NO_RECEIVERS;
 
     private WirelessNetwork()
     {
-        m_receivers = new HashSet<>();
     }
 
     @Override
     public synchronized void addReceiver( @Nonnull IPacketReceiver receiver )
     {
         Preconditions.checkNotNull( receiver, "device cannot be null" );
-        m_receivers.add( receiver );
+        if( receiver instanceof ModemPeripheral )
+        {
+            // Modems will tell us which channels they have open with setChannels
+            m_listeners.putIfAbsent( receiver, NO_CHANNELS );
+        }
+        else if( !ArrayUtils.contains( m_others, receiver ) )
+        {
+            m_others = ArrayUtils.add( m_others, receiver );
+        }
     }
 
     @Override
     public synchronized void removeReceiver( @Nonnull IPacketReceiver receiver )
     {
         Preconditions.checkNotNull( receiver, "device cannot be null" );
-        m_receivers.remove( receiver );
+        int[] channels = m_listeners.remove( receiver );
+        if( channels != null )
+        {
+            for( int channel : channels ) removeListener( channel, receiver );
+        }
+        else
+        {
+            m_others = ArrayUtils.removeElement( m_others, receiver );
+        }
     }
 
-    @Override
-    public synchronized void transmitSameDimension( @Nonnull Packet packet, double range )
+    /**
+     * Set which channels a receiver is listening on, so it is only offered packets sent on those channels.
+     *
+     * @param receiver The receiver, which must have been added to this network.
+     * @param channels The channels it is now listening on.
+     */
+    synchronized void setChannels( @Nonnull IPacketReceiver receiver, @Nonnull int[] channels )
     {
-        Preconditions.checkNotNull( packet, "packet cannot be null" );
-        for( IPacketReceiver device : m_receivers )
+        int[] existing = m_listeners.get( receiver );
+        if( existing == null ) return;
+
+        for( int channel : existing )
+        {
+            if( !ArrayUtils.contains( channels, channel ) ) removeListener( channel, receiver );
+        }
+        for( int channel : channels )
+        {
+            if( !ArrayUtils.contains( existing, channel ) )
+            {
+                IPacketReceiver[] receivers = m_channels.get( channel );
+                m_channels.put( channel, receivers == null ? new IPacketReceiver[] { receiver } : ArrayUtils.add( receivers, receiver ) );
+            }
+        }
+        m_listeners.put( receiver, channels.clone() );
+    }
+
+    private void removeListener( int channel, IPacketReceiver receiver )
+    {
+        IPacketReceiver[] receivers = m_channels.get( channel );
+        if( receivers == null ) return;
+
+        receivers = ArrayUtils.removeElement( receivers, receiver );
+        if( receivers.length == 0 )
+        {
+            m_channels.remove( channel );
+        }
+        else
         {
-            tryTransmit( device, packet, range, false );
+            m_channels.put( channel, receivers );
         }
     }
 
     @Override
-    public synchronized void transmitInterdimensional( @Nonnull Packet packet )
+    public void transmitSameDimension( @Nonnull Packet packet, double range )
+    {
+        Preconditions.checkNotNull( packet, "packet cannot be null" );
+        transmit( packet, range, false );
+    }
+
+    @Override
+    public void transmitInterdimensional( @Nonnull Packet packet )
     {
         Preconditions.checkNotNull( packet, "packet cannot be null" );
-        for (IPacketReceiver device : m_receivers)
+        transmit( packet, 0, true );
+    }
+
+    private void transmit( Packet packet, double range, boolean interdimensional )
+    {
+        IPacketSender sender = packet.getSender();
+        World world = sender.getWorld();
+        Vec3d position = sender.getPosition();
+
+        IPacketReceiver[] listeners = m_channels.get( packet.getChannel() );
+        if( listeners != null )
         {
-            tryTransmit( device, packet, 0, true );
+            for( IPacketReceiver receiver : listeners )
+            {
+                tryTransmit( receiver, packet, world, position, range, interdimensional );
+            }
+        }
+
+        for( IPacketReceiver receiver : m_others )
+        {
+            tryTransmit( receiver, packet, world, position, range, interdimensional );
         }
     }
 
-    private void tryTransmit( IPacketReceiver receiver, Packet packet, double range, boolean interdimensional )
+    private void tryTransmit( IPacketReceiver receiver, Packet packet, World world, Vec3d position, double range, boolean interdimensional )
     {
-        IPacketSender sender = packet.getSender();
-        if( receiver.getWorld() == sender.getWorld() )
+        if( receiver.getWorld() == world )
         {
             double receiveRange = Math.max( range, receiver.getRange() ); // Ensure range is symmetrical
-            double distanceSq = receiver.getPosition().squareDistanceTo( sender.getPosition() );
+            double distanceSq = receiver.getPosition().squareDistanceTo( position );
             if( interdimensional || receiver.isInterdimensional() || distanceSq <= (receiveRange * receiveRange) )
             {
                 receiver.receiveSameDimension( packet, Math.sqrt( distanceSq ) );
@@ -164,5 +164,22 @@ public class PocketServerComputer extends ServerComputer implements IPocketAcces
             this.m_upgrade = upgrade;
             invalidatePeripheral();
         }
+
+        // The holder can see the screen, so make sure they have the terminal
+        if( entity instanceof EntityPlayer && isHolding( (EntityPlayer) entity ) )
+        {
+            addTerminalViewer( (EntityPlayer) entity );
+        }
+    }
+
+    @Override
+    protected boolean canSeeTerminal( EntityPlayer player )
+    {
+        return super.canSeeTerminal( player ) || (player == m_entity && isHolding( player ));
+    }
+
+    private boolean isHolding( EntityPlayer player )
+    {
+        return m_stack != null && (player.getHeldItemMainhand() == m_stack || player.getHeldItemOffhand() == m_stack);
     }
 }
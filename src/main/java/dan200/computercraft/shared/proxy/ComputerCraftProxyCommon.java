@@ -36,6 +36,7 @@ import dan200.computercraft.shared.peripheral.common.*;
 import dan200.computercraft.shared.peripheral.diskdrive.ContainerDiskDrive;
 import dan200.computercraft.shared.peripheral.diskdrive.TileDiskDrive;
 import dan200.computercraft.shared.peripheral.modem.BlockAdvancedModem;
+import dan200.computercraft.shared.peripheral.modem.ModemPeripheral;
 import dan200.computercraft.shared.peripheral.modem.TileAdvancedModem;
 import dan200.computercraft.shared.peripheral.modem.TileCable;
 import dan200.computercraft.shared.peripheral.modem.TileWirelessModem;
@@ -216,6 +217,7 @@ public abstract class ComputerCraftProxyCommon implements IComputerCraftProxy
             case ComputerCraftPacket.Reboot:
             case ComputerCraftPacket.QueueEvent:
             case ComputerCraftPacket.RequestComputerUpdate:
+            case ComputerCraftPacket.RequestTerminalUpdate:
             case ComputerCraftPacket.SetLabel:
             {
                 int instance = packet.m_dataInt[0];
@@ -671,6 +673,7 @@ public abstract class ComputerCraftProxyCommon implements IComputerCraftProxy
             if (event.phase == TickEvent.Phase.START)
             {
                 MainThread.executePendingTasks();
+                ModemPeripheral.flushPending();
                 ComputerCraft.serverComputerRegistry.update();
             }
         }
@@ -1,6 +1,7 @@
 package dan200.computercraft.shared.util;
 
 import dan200.computercraft.ComputerCraft;
+import dan200.computercraft.core.filesystem.FileMount;
 
 import java.io.*;
 
@@ -45,6 +46,9 @@ public class IDAssigner
                 String[] contents = location.list();
                 for( String content : contents )
                 {
+                    // Skip the disk usage ledgers stored alongside each directory
+                    if( content.endsWith( FileMount.USAGE_SUFFIX ) ) continue;
+
                     try
                     {
                         int number = Integer.parseInt( content );
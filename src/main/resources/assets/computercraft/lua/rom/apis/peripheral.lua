@@ -91,7 +91,7 @@ function wrap( _sSide )
     if type( _sSide ) ~= "string" then
         error( "bad argument #1 (expected string, got " .. type( _sSide ) .. ")", 2 )
     end
-	if peripheral.isPresent( _sSide ) then
+	if native.isPresent( _sSide ) then
 		local tMethods = peripheral.getMethods( _sSide )
 		local tResult = {}
 		for n,sMethod in ipairs( tMethods ) do
@@ -101,6 +101,14 @@ function wrap( _sSide )
 		end
 		return tResult
 	end
+	for n,sSide in ipairs( rs.getSides() ) do
+		if native.getType( sSide ) == "modem" and not native.call( sSide, "isWireless" ) then
+			if native.call( sSide, "isPresentRemote", _sSide )  then
+				-- Remote peripherals are wrapped by the modem, so calls go straight to the peripheral
+				return native.call( sSide, "wrapRemote", _sSide )
+			end
+		end
+	end
 	return nil
 end
 